@@ -2,8 +2,10 @@ package nhom2.NguyenTanSang;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class QlsApplication {
 
 	public static void main(String[] args) {
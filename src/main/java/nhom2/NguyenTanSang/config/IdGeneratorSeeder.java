@@ -0,0 +1,56 @@
+package nhom2.NguyenTanSang.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Khởi tạo bảng id_generators cho các entity dùng @TableGenerator (Invoice, ItemInvoice)
+ * - MySQL không có sequence: id được cấp theo khối 50 từ bảng này (pooled), không cần INSERT để biết id
+ *   nên Hibernate gom được các INSERT vào một JDBC batch
+ * - Dữ liệu cũ được tạo bằng AUTO_INCREMENT: đặt giá trị bắt đầu vượt quá MAX(id) hiện có
+ *   (cộng thêm một khối để an toàn với cả hai cách hiểu giá trị bảng của pooled/pooled-lo)
+ * - Chạy khi khởi động, sau khi EntityManagerFactory cập nhật schema và trước khi nhận request
+ */
+@Component
+@Slf4j
+public class IdGeneratorSeeder {
+    public static final String TABLE = "id_generators";
+    public static final int ALLOCATION_SIZE = 50;
+
+    // gen_name (pkColumnValue trong @TableGenerator) -> bảng dữ liệu
+    private static final Map<String, String> GENERATORS = Map.of(
+            "invoices", "invoices",
+            "item_invoice", "item_invoice"
+    );
+
+    private static final String CREATE_SQL =
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            "gen_name VARCHAR(255) NOT NULL PRIMARY KEY, next_val BIGINT)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // EntityManagerFactory chỉ để bảo đảm schema đã được Hibernate tạo/cập nhật trước khi seed
+    public IdGeneratorSeeder(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void seed() {
+        jdbcTemplate.execute(CREATE_SQL);
+        GENERATORS.forEach((generator, table) -> {
+            jdbcTemplate.update(
+                    "INSERT INTO " + TABLE + " (gen_name, next_val) " +
+                    "SELECT ?, COALESCE(MAX(id), 0) + ? FROM " + table + " " +
+                    "ON DUPLICATE KEY UPDATE next_val = GREATEST(next_val, VALUES(next_val))",
+                    generator, ALLOCATION_SIZE + 1);
+            Long next = jdbcTemplate.queryForObject(
+                    "SELECT next_val FROM " + TABLE + " WHERE gen_name = ?", Long.class, generator);
+            log.info("Id generator '{}' ready, next_val = {}", generator, next);
+        });
+    }
+}
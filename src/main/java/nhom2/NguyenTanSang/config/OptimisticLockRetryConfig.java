@@ -0,0 +1,101 @@
+package nhom2.NguyenTanSang.config;
+
+import jakarta.persistence.OptimisticLockException;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Cấu hình retry cho các method gắn @RetryOnOptimisticLock
+ * - Advisor chạy bên ngoài TransactionInterceptor: mỗi lần thử là một transaction mới
+ * - Backoff lũy thừa có giới hạn + jitter để các request tranh chấp không thử lại cùng lúc
+ */
+@Configuration
+@Slf4j
+public class OptimisticLockRetryConfig {
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor optimisticLockRetryAdvisor() {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+                AnnotationMatchingPointcut.forMethodAnnotation(RetryOnOptimisticLock.class),
+                new OptimisticLockRetryInterceptor());
+        // Ưu tiên cao hơn @Transactional (LOWEST_PRECEDENCE) để bọc bên ngoài transaction
+        advisor.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+        return advisor;
+    }
+
+    private static final class OptimisticLockRetryInterceptor implements MethodInterceptor {
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            // Caller đã mở transaction: persistence context đã hỏng, để caller tự xử lý
+            if (TransactionSynchronizationManager.isActualTransactionActive()
+                    || !(invocation instanceof ProxyMethodInvocation proxyInvocation)) {
+                return invocation.proceed();
+            }
+
+            Method method = invocation.getThis() != null
+                    ? AopUtils.getMostSpecificMethod(invocation.getMethod(), invocation.getThis().getClass())
+                    : invocation.getMethod();
+            RetryOnOptimisticLock retry = AnnotatedElementUtils.findMergedAnnotation(method, RetryOnOptimisticLock.class);
+            if (retry == null) {
+                return invocation.proceed();
+            }
+
+            int maxAttempts = Math.max(1, retry.maxAttempts());
+            long backoff = Math.max(0, retry.backoffMillis());
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return proxyInvocation.invocableClone().proceed();
+                } catch (RuntimeException e) {
+                    if (!isOptimisticLockFailure(e) || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    long delay = Math.min(retry.maxBackoffMillis(), backoff << Math.min(attempt - 1, 20));
+                    log.warn("Optimistic lock conflict in {}.{} (attempt {}/{}), retrying in ~{} ms",
+                            method.getDeclaringClass().getSimpleName(), method.getName(),
+                            attempt, maxAttempts, delay);
+                    sleep(delay, e);
+                }
+            }
+        }
+
+        private static boolean isOptimisticLockFailure(Throwable e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof OptimisticLockingFailureException
+                        || cause instanceof OptimisticLockException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void sleep(long delay, RuntimeException original) {
+            if (delay <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw original;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package nhom2.NguyenTanSang.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cấu hình giới hạn tần suất request (token bucket)
+ * Load từ application.properties với prefix "rate-limit"
+ * - Mỗi route có sức chứa (capacity) và tốc độ nạp lại (refillPerMinute)
+ * - byIp / byUsername: giới hạn riêng theo IP client và theo username trong request
+ * - trustedProxyHops: số proxy tin cậy đứng trước ứng dụng (Railway: 1)
+ *   0 = dùng địa chỉ kết nối TCP, bỏ qua X-Forwarded-For (client tự gửi được header này)
+ *   N > 0 = lấy phần tử thứ N tính từ cuối X-Forwarded-For, tức địa chỉ mà proxy tin cậy ngoài cùng nhìn thấy;
+ *   các phần tử bên trái do client tự khai nên không dùng
+ */
+@Configuration
+@ConfigurationProperties(prefix = "rate-limit")
+@Data
+public class RateLimitConfig {
+    private boolean enabled = true;
+    private int maxBuckets = 10_000;
+    private int trustedProxyHops = 0;
+    private List<Route> routes = new ArrayList<>(List.of(
+            new Route("POST", "/api/auth/login", 10, 10, true, true),
+            new Route("POST", "/login", 10, 10, true, true),
+            new Route("POST", "/api/auth/register", 5, 5, true, false),
+            new Route("POST", "/api/auth/refresh", 30, 30, true, false),
+            new Route("POST", "/api/webhooks/sepay", 120, 120, true, false)
+    ));
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Route {
+        private String method = "POST";
+        private String path;
+        private int capacity;
+        private int refillPerMinute;
+        private boolean byIp = true;
+        private boolean byUsername;
+    }
+}
@@ -0,0 +1,28 @@
+package nhom2.NguyenTanSang.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Đánh dấu method service được chạy lại khi gặp xung đột optimistic lock (@Version)
+ * Mỗi lần thử là một transaction mới; chỉ có hiệu lực khi method là điểm mở transaction
+ * (nếu caller đã có transaction thì exception được ném thẳng ra ngoài)
+ *
+ * Xem OptimisticLockRetryConfig
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RetryOnOptimisticLock {
+    /** Tổng số lần thử (tính cả lần đầu) */
+    int maxAttempts() default 3;
+
+    /** Thời gian chờ trước lần thử lại đầu tiên, nhân đôi sau mỗi lần */
+    long backoffMillis() default 50;
+
+    /** Thời gian chờ tối đa giữa hai lần thử */
+    long maxBackoffMillis() default 500;
+}
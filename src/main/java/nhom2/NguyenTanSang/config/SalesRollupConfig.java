@@ -0,0 +1,19 @@
+package nhom2.NguyenTanSang.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Cấu hình bảng tổng hợp doanh số theo ngày
+ * Load từ application.properties với prefix "sales.rollup"
+ * - zone: múi giờ xác định "ngày bán" của hóa đơn, dùng chung cho cập nhật tăng dần và rebuild
+ *   (invoice_date lưu theo UTC). Rebuild đổi giờ trong MySQL bằng độ lệch cố định của múi giờ
+ *   nên múi giờ không được có giờ mùa hè (Asia/Ho_Chi_Minh: luôn +07:00)
+ */
+@Configuration
+@ConfigurationProperties(prefix = "sales.rollup")
+@Data
+public class SalesRollupConfig {
+    private String zone = "Asia/Ho_Chi_Minh";
+}
@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Cấu hình SePay Payment Gateway
  * Load từ application.properties với prefix "sepay"
@@ -15,6 +18,8 @@ public class SePayConfig {
     private Api api = new Api();
     private Account account = new Account();
     private Bank bank = new Bank();
+    private Transfer transfer = new Transfer();
+    private Qr qr = new Qr();
 
     @Data
     public static class Api {
@@ -31,5 +36,30 @@ public class SePayConfig {
     @Data
     public static class Bank {
         private String code;
+        // Mã BIN Napas (6 số); bỏ trống thì suy ra từ code
+        private String bin;
+    }
+
+    /**
+     * Cú pháp nội dung chuyển khoản
+     * - prefixes: tiền tố nhận diện mã đơn, theo thứ tự ưu tiên; tiền tố đầu tiên dùng khi tạo QR
+     * - checksum: thêm một chữ số kiểm tra (Luhn) sau mã đơn, ngăn bằng "-", khi tạo QR ("ORDER_123-0");
+     *   khi đọc, chữ số kiểm tra sai thì bỏ qua, mã không có chữ số kiểm tra (QR cũ) vẫn được chấp nhận
+     */
+    @Data
+    public static class Transfer {
+        private List<String> prefixes = new ArrayList<>(List.of("ORDER", "QLSACH", "DH"));
+        private boolean checksum = false;
+    }
+
+    /**
+     * Ảnh QR tạo tại server
+     * - cacheSize: số ảnh giữ trong bộ nhớ (LRU)
+     * - moduleSize: số pixel cho mỗi ô của mã QR trong ảnh PNG
+     */
+    @Data
+    public static class Qr {
+        private int cacheSize = 256;
+        private int moduleSize = 8;
     }
 }
@@ -2,10 +2,12 @@ package nhom2.NguyenTanSang.controllers;
 import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.entities.Category;
 import nhom2.NguyenTanSang.services.BookService;
+import nhom2.NguyenTanSang.services.BookSuggestionIndex;
 import nhom2.NguyenTanSang.services.CartService;
 import nhom2.NguyenTanSang.services.CategoryService;
 import nhom2.NguyenTanSang.viewmodels.BookGetVm;
 import nhom2.NguyenTanSang.viewmodels.BookPostVm;
+import nhom2.NguyenTanSang.viewmodels.CursorPageVm;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -18,16 +20,42 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ApiController {
     private final BookService bookService;
+    private final BookSuggestionIndex bookSuggestionIndex;
     private final CategoryService categoryService;
     private final CartService cartService;
     
+    /**
+     * Danh sách sách
+     * - Mặc định phân trang keyset: trang sau lấy bằng cursor trong header X-Next-Cursor
+     * - pageNo > 0: phân trang offset cũ (giữ tương thích)
+     * - X-Total-Count: tổng số sách (cache ngắn hạn)
+     */
     @GetMapping("/books")
-    public ResponseEntity<List<BookGetVm>> getAllBooks(Integer pageNo, Integer pageSize, String sortBy) {
-        return ResponseEntity.ok(bookService.getAllBooks(
-                        pageNo == null ? 0 : pageNo,
-                        pageSize == null ? 20 : pageSize,
-                        sortBy == null ? "id" : sortBy)
-                .stream()
+    public ResponseEntity<List<BookGetVm>> getAllBooks(Integer pageNo, Integer pageSize, String sortBy,
+                                                       String sortDir, String cursor) {
+        int size = pageSize == null ? 20 : Math.min(Math.max(pageSize, 1), 100);
+        if (pageNo != null && pageNo > 0 && cursor == null) {
+            return ResponseEntity.ok()
+                    .header("X-Total-Count", String.valueOf(bookService.getTotalBookCount()))
+                    .body(bookService.getAllBooks(pageNo, size, sortBy == null ? "id" : sortBy)
+                            .stream()
+                            .map(BookGetVm::from)
+                            .toList());
+        }
+        
+        CursorPageVm<Book> page;
+        try {
+            page = bookService.getBooksByCursor(cursor, size,
+                    sortBy == null ? "id" : sortBy, "desc".equalsIgnoreCase(sortDir));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(bookService.getTotalBookCount()));
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", page.nextCursor());
+        }
+        return response.body(page.items().stream()
                 .map(BookGetVm::from)
                 .toList());
     }
@@ -81,10 +109,23 @@ public class ApiController {
         return ResponseEntity.ok().build();
     }
     
+    /**
+     * Gợi ý title/author theo tiền tố cho ô tìm kiếm
+     * GET /api/v1/books/suggest?q=lap%20tr&limit=8
+     * Đọc trực tiếp trie trong bộ nhớ, không mở transaction
+     */
+    @GetMapping("/books/suggest")
+    public ResponseEntity<List<BookSuggestionIndex.Suggestion>> suggestBooks(String q, Integer limit) {
+        return ResponseEntity.ok(bookSuggestionIndex.suggest(q, limit == null ? 8 : Math.min(Math.max(limit, 1), 20)));
+    }
+    
     @GetMapping("/books/search")
-    public ResponseEntity<List<BookGetVm>> searchBooks(String keyword)
+    public ResponseEntity<List<BookGetVm>> searchBooks(String keyword, Integer limit)
     {
-        return ResponseEntity.ok(bookService.searchBook(keyword)
+        if (keyword == null || keyword.isBlank()) {
+            return ResponseEntity.ok(List.of());
+        }
+        return ResponseEntity.ok(bookService.searchBook(keyword, limit == null ? 50 : Math.min(Math.max(limit, 1), 200))
                 .stream()
                 .map(BookGetVm::from)
                 .toList());
@@ -8,8 +8,11 @@ import nhom2.NguyenTanSang.dtos.LoginRequest;
 import nhom2.NguyenTanSang.dtos.RefreshTokenRequest;
 import nhom2.NguyenTanSang.dtos.RegisterRequest;
 import nhom2.NguyenTanSang.entities.User;
+import nhom2.NguyenTanSang.services.RefreshTokenService;
 import nhom2.NguyenTanSang.services.UserService;
+import nhom2.NguyenTanSang.utils.BoundedPasswordEncoder;
 import nhom2.NguyenTanSang.utils.JwtUtil;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -22,6 +25,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -37,6 +41,7 @@ public class AuthController {
     private final AuthenticationManager authenticationManager;
     private final UserService userService;
     private final JwtUtil jwtUtil;
+    private final RefreshTokenService refreshTokenService;
 
     /**
      * POST /api/auth/login
@@ -58,7 +63,7 @@ public class AuthController {
             
             // Generate tokens
             String accessToken = jwtUtil.generateToken(userDetails);
-            String refreshToken = jwtUtil.generateRefreshToken(userDetails);
+            String refreshToken = refreshTokenService.issue(userDetails.getUsername());
 
             // Get user info
             User user = (User) userDetails;
@@ -79,6 +84,8 @@ public class AuthController {
             log.info("User logged in successfully: {}", loginRequest.getUsername());
             return ResponseEntity.ok(response);
 
+        } catch (BoundedPasswordEncoder.PasswordHashingBusyException e) {
+            return passwordHashingBusy(e);
         } catch (BadCredentialsException e) {
             log.error("Login failed for user: {}", loginRequest.getUsername());
             Map<String, String> error = new HashMap<>();
@@ -126,7 +133,7 @@ public class AuthController {
 
             // Generate tokens
             String accessToken = jwtUtil.generateToken(userDetails);
-            String refreshToken = jwtUtil.generateRefreshToken(userDetails);
+            String refreshToken = refreshTokenService.issue(userDetails.getUsername());
 
             // Build response
             AuthResponse response = AuthResponse.builder()
@@ -144,6 +151,8 @@ public class AuthController {
             log.info("User registered successfully: {}", registerRequest.getUsername());
             return ResponseEntity.status(HttpStatus.CREATED).body(response);
 
+        } catch (BoundedPasswordEncoder.PasswordHashingBusyException e) {
+            return passwordHashingBusy(e);
         } catch (Exception e) {
             log.error("Registration failed: {}", e.getMessage());
             Map<String, String> error = new HashMap<>();
@@ -159,11 +168,10 @@ public class AuthController {
     @PostMapping("/refresh")
     public ResponseEntity<?> refreshToken(@Valid @RequestBody RefreshTokenRequest request) {
         try {
-            String refreshToken = request.getRefreshToken();
-            
-            // Validate refresh token
-            if (jwtUtil.validateToken(refreshToken)) {
-                String username = jwtUtil.extractUsername(refreshToken);
+            // Validate and rotate refresh token (old token can no longer be used)
+            Optional<RefreshTokenService.Rotation> rotation = refreshTokenService.rotate(request.getRefreshToken());
+            if (rotation.isPresent()) {
+                String username = rotation.get().username();
                 UserDetails userDetails = userService.loadUserByUsername(username);
 
                 // Generate new access token
@@ -172,6 +180,7 @@ public class AuthController {
                 // Build response
                 Map<String, Object> response = new HashMap<>();
                 response.put("accessToken", newAccessToken);
+                response.put("refreshToken", rotation.get().refreshToken());
                 response.put("tokenType", "Bearer");
                 response.put("expiresIn", 86400000L);
 
@@ -190,6 +199,16 @@ public class AuthController {
         }
     }
 
+    /**
+     * POST /api/auth/logout
+     * Revoke the refresh token and every token rotated from it
+     */
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(@Valid @RequestBody RefreshTokenRequest request) {
+        refreshTokenService.revoke(request.getRefreshToken());
+        return ResponseEntity.noContent().build();
+    }
+
     /**
      * GET /api/auth/me
      * Get current authenticated user info
@@ -200,16 +219,33 @@ public class AuthController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
 
-        UserDetails userDetails = (UserDetails) authentication.getPrincipal();
-        User user = (User) userDetails;
+        // JWT không trạng thái: principal chỉ là username, đọc email từ database
+        User user = authentication.getPrincipal() instanceof User principal
+                ? principal
+                : userService.findUserByUsername(authentication.getName());
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
 
         Map<String, Object> response = new HashMap<>();
         response.put("username", user.getUsername());
         response.put("email", user.getEmail());
-        response.put("roles", userDetails.getAuthorities().stream()
+        response.put("roles", authentication.getAuthorities().stream()
                 .map(GrantedAuthority::getAuthority)
                 .collect(Collectors.toList()));
 
         return ResponseEntity.ok(response);
     }
+
+    /**
+     * Return 503 with Retry-After when the password hashing pool is saturated
+     */
+    private ResponseEntity<Map<String, String>> passwordHashingBusy(Exception e) {
+        log.warn("Password hashing rejected: {}", e.getMessage());
+        Map<String, String> error = new HashMap<>();
+        error.put("error", "Server is busy, please retry shortly");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(error);
+    }
 }
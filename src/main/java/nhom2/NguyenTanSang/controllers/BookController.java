@@ -3,20 +3,21 @@ package nhom2.NguyenTanSang.controllers;
 import nhom2.NguyenTanSang.dtos.SearchDTO;
 import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.entities.Review;
-import nhom2.NguyenTanSang.entities.User;
-import nhom2.NguyenTanSang.daos.Item;
-import nhom2.NguyenTanSang.repositories.IUserRepository;
 import nhom2.NguyenTanSang.services.BookService;
 import nhom2.NguyenTanSang.services.CartService;
 import nhom2.NguyenTanSang.services.CategoryService;
 import nhom2.NguyenTanSang.services.FileUploadService;
 import nhom2.NguyenTanSang.services.ReviewService;
+import nhom2.NguyenTanSang.services.UserIdentityCache;
+import nhom2.NguyenTanSang.viewmodels.CursorPageVm;
+import nhom2.NguyenTanSang.viewmodels.FacetedPageVm;
 import jakarta.servlet.http.HttpSession;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.data.domain.Page;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -24,7 +25,6 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.security.Principal;
-import java.util.List;
 
 
 @Controller
@@ -35,22 +35,42 @@ public class BookController {
     private final CategoryService categoryService;
     private final CartService cartService;
     private final ReviewService reviewService;
-    private final IUserRepository userRepository;
+    private final UserIdentityCache userIdentityCache;
     private final FileUploadService fileUploadService;
 
+    /**
+     * Danh sách sách với phân trang keyset (cursor)
+     * Trang sau dùng cursor của trang trước nên mọi trang đều có chi phí như trang đầu
+     */
     @GetMapping
     public String showAllBooks(@NotNull Model model,
-                               @RequestParam(defaultValue = "0")
-                               Integer pageNo,
+                               @RequestParam(required = false)
+                               String cursor,
                                @RequestParam(defaultValue = "20")
                                Integer pageSize,
                                @RequestParam(defaultValue = "id")
-                               String sortBy) {
-        List<Book> books = bookService.getAllBooks(pageNo, pageSize, sortBy);
-        model.addAttribute("books", books);
-        model.addAttribute("currentPage", pageNo);
-        model.addAttribute("totalPages", books.size() / pageSize);
-        model.addAttribute("totalItems", (long) books.size());
+                               String sortBy,
+                               @RequestParam(defaultValue = "asc")
+                               String sortDir) {
+        CursorPageVm<Book> booksPage;
+        int size = Math.min(Math.max(pageSize, 1), 100);
+        try {
+            booksPage = bookService.getBooksByCursor(cursor, size,
+                    sortBy, "desc".equalsIgnoreCase(sortDir));
+        } catch (IllegalArgumentException e) {
+            // Cursor hỏng/hết hạn: quay về trang đầu
+            return "redirect:/books";
+        }
+        model.addAttribute("books", booksPage.items());
+        model.addAttribute("nextCursor", booksPage.nextCursor());
+        // Liên kết trang sau/trang đầu giữ nguyên kích thước trang và thứ tự sắp xếp
+        model.addAttribute("pageSize", size);
+        model.addAttribute("sortBy", sortBy);
+        model.addAttribute("sortDir", sortDir);
+        model.addAttribute("isFirstPage", cursor == null || cursor.isBlank());
+        model.addAttribute("currentPage", 0);
+        model.addAttribute("totalPages", 0);
+        model.addAttribute("totalItems", bookService.getTotalBookCount());
         model.addAttribute("categories", categoryService.getAllCategories());
         model.addAttribute("searchDTO", new SearchDTO());
         return "book/list";
@@ -77,11 +97,11 @@ public class BookController {
         boolean canReview = false;
         Review userReview = null;
         if (principal != null) {
-            User user = userRepository.findByUsername(principal.getName())
+            UserIdentityCache.UserIdentity user = userIdentityCache.find(principal.getName())
                 .orElse(null);
             if (user != null) {
-                canReview = reviewService.canUserReview(user.getId(), id);
-                userReview = reviewService.getUserReviewForBook(user.getId(), id);
+                canReview = reviewService.canUserReview(user.id(), id);
+                userReview = reviewService.getUserReviewForBook(user.id(), id);
             }
         }
         
@@ -137,20 +157,10 @@ public class BookController {
     @PostMapping("/add-to-cart")
     public String addToCart(HttpSession session,
                             @RequestParam long id,
-                            @RequestParam String name,
-                            @RequestParam double price,
                             @RequestParam(defaultValue = "1") int quantity,
                             @RequestHeader(value = "Referer", required = false) String referer) {
-        var cart = cartService.getCart(session);
-        
-        // Lấy imageUrl từ database
-        String imageUrl = bookService.getBookById(id)
-                .map(book -> book.getImageUrl())
-                .orElse(null);
-        
-        Item item = new Item(id, name, price, quantity, imageUrl);
-        cart.addItems(item);
-        cartService.updateCart(session, cart);
+        // Tên/giá lấy từ ảnh chụp giá phía server, không dùng giá gửi từ form
+        cartService.addToCart(session, id, quantity);
         
         // Redirect về trang trước đó hoặc mặc định về /books
         return "redirect:" + (referer != null ? referer : "/books");
@@ -203,6 +213,12 @@ public class BookController {
             bookService.updateBook(book);
             return "redirect:/books";
             
+        } catch (IllegalStateException | ObjectOptimisticLockingFailureException e) {
+            // Sách đã bị thay đổi (vd. checkout trừ kho) sau khi mở form: không ghi đè
+            model.addAttribute("error", e instanceof IllegalStateException ? e.getMessage()
+                    : "Sách vừa được cập nhật bởi giao dịch khác, vui lòng tải lại trang và sửa lại");
+            model.addAttribute("categories", categoryService.getAllCategories());
+            return "book/edit";
         } catch (Exception e) {
             model.addAttribute("error", "Lỗi cập nhật ảnh: " + e.getMessage());
             model.addAttribute("categories", categoryService.getAllCategories());
@@ -217,7 +233,8 @@ public class BookController {
             @RequestParam(defaultValue = "20") int size,
             Model model
     ) {
-        Page<Book> booksPage = bookService.searchWithFilters(searchDTO, page, size);
+        FacetedPageVm<Book> result = bookService.searchWithFacets(searchDTO, page, size);
+        Page<Book> booksPage = result.page();
         
         model.addAttribute("books", booksPage.getContent());
         model.addAttribute("currentPage", page);
@@ -225,6 +242,7 @@ public class BookController {
         model.addAttribute("totalItems", booksPage.getTotalElements());
         model.addAttribute("categories", categoryService.getAllCategories());
         model.addAttribute("searchDTO", searchDTO);
+        model.addAttribute("facets", result.facets());
         
         return "book/list";
     }
@@ -2,8 +2,9 @@ package nhom2.NguyenTanSang.controllers;
 
 import nhom2.NguyenTanSang.entities.Invoice;
 import nhom2.NguyenTanSang.entities.User;
-import nhom2.NguyenTanSang.repositories.IUserRepository;
 import nhom2.NguyenTanSang.services.CartService;
+import nhom2.NguyenTanSang.services.UserIdentityCache;
+import nhom2.NguyenTanSang.services.UserService;
 import jakarta.servlet.http.HttpSession;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
@@ -26,7 +27,8 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class CartController {
     private final CartService cartService;
-    private final IUserRepository userRepository;
+    private final UserService userService;
+    private final UserIdentityCache userIdentityCache;
     @GetMapping
     public String showCart(HttpSession session,
                            @NotNull Model model) {
@@ -87,9 +89,8 @@ public class CartController {
             return "redirect:/cart";
         }
         
-        // Lấy user mới nhất từ database để đảm bảo có đầy đủ thông tin (email, phone, etc.)
-        User currentUser = userRepository.findByUsername(principal.getName())
-                .orElseThrow(() -> new IllegalStateException("User not found: " + principal.getName()));
+        // Thông tin user (email, phone, ...) từ cache định danh, bị xóa mỗi khi user được cập nhật
+        UserIdentityCache.UserIdentity currentUser = userIdentityCache.get(principal.getName());
         
         model.addAttribute("cart", cart);
         model.addAttribute("totalPrice", cartService.getSumPrice(session));
@@ -126,12 +127,12 @@ public class CartController {
                 return "redirect:/cart";
             }
             
-            // Fetch managed User from database to ensure user_id is saved correctly
-            User managedUser = userRepository.findByUsername(principal.getName())
-                    .orElseThrow(() -> new IllegalStateException("User not found: " + principal.getName()));
+            // Identity from cache; the invoice only needs a reference to set user_id
+            UserIdentityCache.UserIdentity identity = userIdentityCache.get(principal.getName());
+            User managedUser = userService.getReference(identity.id());
             
             // Validate accountEmail matches user's email (security check)
-            if (!managedUser.getEmail().equals(accountEmail)) {
+            if (!identity.email().equals(accountEmail)) {
                 redirectAttributes.addFlashAttribute("error", 
                     "Email tài khoản không khớp! Vui lòng thử lại.");
                 return "redirect:/cart/checkout";
@@ -140,12 +141,12 @@ public class CartController {
             // Nếu receiverEmail rỗng, dùng accountEmail
             String finalReceiverEmail = (receiverEmail != null && !receiverEmail.trim().isEmpty()) 
                     ? receiverEmail.trim() 
-                    : managedUser.getEmail();
+                    : identity.email();
             
             // Create invoice object with shipping info
             Invoice invoice = Invoice.builder()
                     .receiverName(receiverName)
-                    .email(managedUser.getEmail()) // LUÔN dùng email từ DB để link user
+                    .email(identity.email()) // Email tài khoản lấy từ UserIdentityCache (xóa khi user được cập nhật), không đọc lại DB
                     .receiverEmail(finalReceiverEmail) // Email người nhận (có thể khác)
                     .phone(phone)
                     .shippingAddress(shippingAddress)
@@ -5,6 +5,7 @@ import nhom2.NguyenTanSang.entities.Invoice;
 import nhom2.NguyenTanSang.entities.User;
 import nhom2.NguyenTanSang.services.CartService;
 import nhom2.NguyenTanSang.services.InvoiceService;
+import nhom2.NguyenTanSang.services.UserIdentityCache;
 import nhom2.NguyenTanSang.services.UserService;
 import jakarta.servlet.http.HttpSession;
 import jakarta.validation.constraints.NotNull;
@@ -25,6 +26,7 @@ public class InvoiceController {
     private final InvoiceService invoiceService;
     private final CartService cartService;
     private final UserService userService;
+    private final UserIdentityCache userIdentityCache;
 
     /**
      * Lấy user hiện tại từ SecurityContext
@@ -44,9 +46,10 @@ public class InvoiceController {
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy thông tin người dùng"));
         }
         
-        // Nếu là UserDetails (đăng nhập bằng form)
+        // Nếu là UserDetails (đăng nhập bằng form): id lấy từ cache định danh, trả về tham chiếu
         String username = authentication.getName();
-        return userService.findByUsername(username)
+        return userIdentityCache.find(username)
+                .map(identity -> userService.getReference(identity.id()))
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy thông tin người dùng"));
     }
 
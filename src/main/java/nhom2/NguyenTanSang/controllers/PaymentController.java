@@ -5,21 +5,29 @@ import lombok.extern.slf4j.Slf4j;
 import nhom2.NguyenTanSang.dtos.SePayQrCodeDto;
 import nhom2.NguyenTanSang.entities.Invoice;
 import nhom2.NguyenTanSang.repositories.IInvoiceRepository;
+import nhom2.NguyenTanSang.services.InvoiceService;
+import nhom2.NguyenTanSang.services.PaymentQrService;
+import nhom2.NguyenTanSang.services.PaymentStatusBroadcaster;
 import nhom2.NguyenTanSang.services.SePayService;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.util.Date;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Controller xử lý thanh toán qua SePay
  * - Hiển thị trang QR Code
+ * - Ảnh QR VietQR tạo tại server (PNG/SVG)
  * - API kiểm tra trạng thái thanh toán (AJAX)
+ * - Stream SSE đẩy xác nhận thanh toán
  * - Hủy thanh toán
  */
 @Controller
@@ -30,6 +38,9 @@ public class PaymentController {
     
     private final SePayService sePayService;
     private final IInvoiceRepository invoiceRepository;
+    private final InvoiceService invoiceService;
+    private final PaymentStatusBroadcaster paymentStatusBroadcaster;
+    private final PaymentQrService paymentQrService;
 
     /**
      * Hiển thị trang QR Code thanh toán
@@ -50,9 +61,11 @@ public class PaymentController {
             // Generate QR code
             SePayQrCodeDto qrCode = sePayService.generateQrCode(invoice);
             
-            // Lưu QR URL vào invoice
-            invoice.setQrCodeUrl(qrCode.getQrDataURL());
-            invoiceRepository.save(invoice);
+            // Lưu QR URL vào invoice một lần; các lần xem sau không ghi database
+            if (!qrCode.getQrDataURL().equals(invoice.getQrCodeUrl())) {
+                invoiceRepository.updateQrCodeUrl(invoiceId, qrCode.getQrDataURL());
+                invoice.setQrCodeUrl(qrCode.getQrDataURL());
+            }
             
             model.addAttribute("invoice", invoice);
             model.addAttribute("qrCode", qrCode);
@@ -66,6 +79,36 @@ public class PaymentController {
         }
     }
 
+    /**
+     * Ảnh QR chuyển khoản của đơn hàng
+     * URL: GET /payment/qr/123/image.png hoặc /payment/qr/123/image.svg
+     * 
+     * - Ảnh tạo tại server từ chuỗi VietQR, lấy từ cache nếu đã tạo
+     * - Số tiền và nội dung của đơn không đổi nên trình duyệt được phép cache
+     * 
+     * @param invoiceId ID invoice cần thanh toán
+     * @param extension png hoặc svg
+     * @return Ảnh QR
+     */
+    @GetMapping("/qr/{invoiceId}/image.{extension}")
+    @ResponseBody
+    public ResponseEntity<byte[]> paymentQrImage(@PathVariable Long invoiceId, @PathVariable String extension) {
+        PaymentQrService.Format format = switch (extension.toLowerCase()) {
+            case "png" -> PaymentQrService.Format.PNG;
+            case "svg" -> PaymentQrService.Format.SVG;
+            default -> null;
+        };
+        Invoice invoice = invoiceRepository.findById(invoiceId).orElse(null);
+        if (format == null || invoice == null) {
+            return ResponseEntity.notFound().build();
+        }
+        byte[] image = paymentQrService.imageFor(invoice, format);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .cacheControl(CacheControl.maxAge(Duration.ofHours(1)).cachePrivate())
+                .body(image);
+    }
+
     /**
      * API kiểm tra trạng thái thanh toán (AJAX polling)
      * URL: GET /payment/check/123
@@ -112,6 +155,32 @@ public class PaymentController {
         }
     }
 
+    /**
+     * Stream trạng thái thanh toán (Server-Sent Events)
+     * URL: GET /payment/stream/123
+     * 
+     * - Đăng ký trước rồi mới đọc trạng thái một lần: không bỏ lỡ sự kiện xảy ra giữa hai bước
+     * - Sau đó không truy vấn database nữa; webhook/xác nhận thủ công đẩy sự kiện "paid"
+     * 
+     * @param invoiceId ID invoice cần theo dõi
+     * @return SseEmitter gửi sự kiện "paid" {isPaid, status, transactionCode}
+     */
+    @GetMapping(path = "/stream/{invoiceId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter streamPaymentStatus(@PathVariable Long invoiceId) {
+        SseEmitter emitter = paymentStatusBroadcaster.subscribe(invoiceId);
+        invoiceRepository.findById(invoiceId)
+                .filter(invoice -> "PAID".equals(invoice.getPaymentStatus()))
+                .ifPresent(invoice -> {
+                    Map<String, Object> payload = new HashMap<>();
+                    payload.put("isPaid", true);
+                    payload.put("status", "PAID");
+                    payload.put("transactionCode", invoice.getTransactionCode());
+                    paymentStatusBroadcaster.sendAndComplete(emitter, payload);
+                });
+        return emitter;
+    }
+
     /**
      * Manual Payment Verification (For Development/Testing)
      * URL: POST /payment/verify-manual/123
@@ -142,18 +211,15 @@ public class PaymentController {
             }
             
             // Mark as paid manually
-            invoice.setPaymentStatus("PAID");
-            invoice.setTransactionCode("MANUAL_" + System.currentTimeMillis());
-            invoice.setPaidAt(new Date());
-            invoice.setStatus("PROCESSING"); // Chuyển sang xử lý đơn hàng
-            invoiceRepository.save(invoice);
+            String transactionCode = "MANUAL_" + System.currentTimeMillis();
+            invoiceService.confirmPayment(invoiceId, transactionCode);
             
             log.info("✅ Manual payment verification successful for invoice #{}", invoiceId);
             
             response.put("success", true);
             response.put("message", "Xác nhận thanh toán thành công!");
             response.put("isPaid", true);
-            response.put("transactionCode", invoice.getTransactionCode());
+            response.put("transactionCode", transactionCode);
             
             return ResponseEntity.ok(response);
             
@@ -175,13 +241,7 @@ public class PaymentController {
     @PostMapping("/cancel/{invoiceId}")
     public String cancelPayment(@PathVariable Long invoiceId) {
         try {
-            Invoice invoice = invoiceRepository.findById(invoiceId)
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng #" + invoiceId));
-            
-            if ("PENDING".equals(invoice.getPaymentStatus())) {
-                invoice.setStatus("CANCELLED");
-                invoice.setPaymentStatus("FAILED");
-                invoiceRepository.save(invoice);
+            if (invoiceService.cancelPayment(invoiceId)) {
                 log.info("❌ Payment cancelled for invoice #{}", invoiceId);
             }
             
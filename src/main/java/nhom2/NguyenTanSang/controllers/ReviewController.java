@@ -3,9 +3,10 @@ package nhom2.NguyenTanSang.controllers;
 import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.entities.Review;
 import nhom2.NguyenTanSang.entities.User;
-import nhom2.NguyenTanSang.repositories.IUserRepository;
 import nhom2.NguyenTanSang.services.BookService;
 import nhom2.NguyenTanSang.services.ReviewService;
+import nhom2.NguyenTanSang.services.UserIdentityCache;
+import nhom2.NguyenTanSang.services.UserService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
@@ -19,7 +20,8 @@ import java.security.Principal;
 public class ReviewController {
     private final ReviewService reviewService;
     private final BookService bookService;
-    private final IUserRepository userRepository;
+    private final UserService userService;
+    private final UserIdentityCache userIdentityCache;
     
     /**
      * Thêm review mới
@@ -33,9 +35,8 @@ public class ReviewController {
         RedirectAttributes redirectAttributes
     ) {
         try {
-            // Lấy user từ database
-            User user = userRepository.findByUsername(principal.getName())
-                .orElseThrow(() -> new IllegalStateException("User not found"));
+            // Lấy user từ cache định danh (tham chiếu, không truy vấn database)
+            User user = userService.getReference(userIdentityCache.get(principal.getName()).id());
             
             // Kiểm tra book tồn tại
             Book book = bookService.getBookById(bookId)
@@ -71,9 +72,8 @@ public class ReviewController {
         RedirectAttributes redirectAttributes
     ) {
         try {
-            // Lấy user từ database
-            User user = userRepository.findByUsername(principal.getName())
-                .orElseThrow(() -> new IllegalStateException("User not found"));
+            // Lấy user từ cache định danh (tham chiếu, không truy vấn database)
+            User user = userService.getReference(userIdentityCache.get(principal.getName()).id());
             
             // Lấy bookId từ review trước khi xóa
             if (bookId == null) {
@@ -111,9 +111,8 @@ public class ReviewController {
         RedirectAttributes redirectAttributes
     ) {
         try {
-            // Lấy user từ database
-            User user = userRepository.findByUsername(principal.getName())
-                .orElseThrow(() -> new IllegalStateException("User not found"));
+            // Lấy user từ cache định danh (tham chiếu, không truy vấn database)
+            User user = userService.getReference(userIdentityCache.get(principal.getName()).id());
             
             reviewService.updateReview(id, rating, comment.trim(), user);
             redirectAttributes.addFlashAttribute("message", "Đã cập nhật đánh giá thành công!");
@@ -1,14 +1,18 @@
 package nhom2.NguyenTanSang.controllers.admin;
 
 import lombok.RequiredArgsConstructor;
+import nhom2.NguyenTanSang.services.SalesRollupService;
 import nhom2.NguyenTanSang.services.StatisticsService;
+import nhom2.NguyenTanSang.services.WebhookJournalService;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import java.time.LocalDate;
 
 @Controller
 @RequestMapping("/admin")
@@ -16,6 +20,8 @@ import java.time.LocalDate;
 @PreAuthorize("hasAuthority('ADMIN')")
 public class AdminDashboardController {
     private final StatisticsService statisticsService;
+    private final SalesRollupService salesRollupService;
+    private final WebhookJournalService webhookJournalService;
     
     @GetMapping({"/", "/dashboard"})
     public String dashboard(Model model) {
@@ -29,7 +35,7 @@ public class AdminDashboardController {
         model.addAttribute("bestSellingBooks", statisticsService.getBestSellingBooks(5));
         
         // Revenue by month (current year)
-        int currentYear = LocalDate.now().getYear();
+        int currentYear = salesRollupService.today().getYear();
         model.addAttribute("revenueByMonth", statisticsService.getRevenueByMonth(currentYear));
         model.addAttribute("currentYear", currentYear);
         
@@ -41,4 +47,33 @@ public class AdminDashboardController {
         
         return "admin/dashboard";
     }
+    
+    /**
+     * Tính lại bảng tổng hợp doanh số từ toàn bộ lịch sử hóa đơn
+     */
+    @PostMapping("/dashboard/rebuild-rollups")
+    public String rebuildRollups(RedirectAttributes redirectAttributes) {
+        try {
+            salesRollupService.rebuild();
+            redirectAttributes.addFlashAttribute("success", "Đã tính lại số liệu thống kê");
+        } catch (Exception e) {
+            redirectAttributes.addFlashAttribute("error", "Tính lại thất bại: " + e.getMessage());
+        }
+        return "redirect:/admin/dashboard";
+    }
+
+    /**
+     * Xử lý lại nhật ký webhook SePay từ một offset (id) - dùng khi khôi phục sau sự cố
+     */
+    @PostMapping("/dashboard/replay-webhooks")
+    public String replayWebhooks(@RequestParam long fromOffset, RedirectAttributes redirectAttributes) {
+        try {
+            int count = webhookJournalService.replayFrom(fromOffset);
+            redirectAttributes.addFlashAttribute("success",
+                    "Đã đưa " + count + " webhook từ offset " + fromOffset + " vào hàng đợi xử lý lại");
+        } catch (Exception e) {
+            redirectAttributes.addFlashAttribute("error", "Xử lý lại webhook thất bại: " + e.getMessage());
+        }
+        return "redirect:/admin/dashboard";
+    }
 }
@@ -3,15 +3,18 @@ package nhom2.NguyenTanSang.controllers.admin;
 import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.services.BookService;
 import nhom2.NguyenTanSang.services.CategoryService;
+import nhom2.NguyenTanSang.viewmodels.InventorySummaryVm;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @Controller
 @RequestMapping("/admin/inventory")
@@ -20,71 +23,60 @@ public class InventoryController {
     private final BookService bookService;
     private final CategoryService categoryService;
     
+    private static final int LOW_STOCK_THRESHOLD = 10;
+    private static final int ALERT_LIST_LIMIT = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final Set<String> SORTABLE_FIELDS = Set.of("id", "title", "author", "price", "stock");
+    
     /**
      * Hiển thị trang quản lý kho với lọc/tìm kiếm
+     * Lọc, sắp xếp, phân trang và đếm đều thực hiện trong database
      */
     @GetMapping
     public String inventoryPage(
             @RequestParam(required = false) String keyword,
             @RequestParam(required = false) Long categoryId,
             @RequestParam(required = false) String stockStatus,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "id") String sortBy,
+            @RequestParam(defaultValue = "asc") String sortDir,
             Model model) {
         
-        // Lấy tất cả sách và sắp xếp theo ID tăng dần
-        List<Book> allBooks = bookService.getAllBooks(0, 1000, "id");
-        
-        // Áp dụng bộ lọc
-        List<Book> filteredBooks = allBooks.stream()
-            .filter(book -> {
-                // Lọc theo keyword
-                if (keyword != null && !keyword.trim().isEmpty()) {
-                    String lowerKeyword = keyword.toLowerCase();
-                    boolean matchKeyword = book.getTitle().toLowerCase().contains(lowerKeyword) ||
-                                          book.getAuthor().toLowerCase().contains(lowerKeyword);
-                    if (!matchKeyword) return false;
-                }
-                
-                // Lọc theo category
-                if (categoryId != null && categoryId > 0) {
-                    if (!book.getCategory().getId().equals(categoryId)) return false;
-                }
-                
-                // Lọc theo trạng thái kho
-                if (stockStatus != null && !stockStatus.isEmpty()) {
-                    switch (stockStatus) {
-                        case "out_of_stock":
-                            if (book.getStock() != 0) return false;
-                            break;
-                        case "low_stock":
-                            if (book.getStock() > 10 || book.getStock() == 0) return false;
-                            break;
-                        case "in_stock":
-                            if (book.getStock() <= 10) return false;
-                            break;
-                    }
-                }
-                
-                return true;
-            })
-            .sorted(Comparator.comparing(Book::getId))
-            .collect(Collectors.toList());
+        if (!SORTABLE_FIELDS.contains(sortBy)) {
+            sortBy = "id";
+        }
+        Sort sort = "desc".equalsIgnoreCase(sortDir)
+                ? Sort.by(sortBy).descending()
+                : Sort.by(sortBy).ascending();
+        if (!"id".equals(sortBy)) {
+            sort = sort.and(Sort.by("id")); // Thứ tự ổn định giữa các trang
+        }
+        Pageable pageable = PageRequest.of(Math.max(page, 0),
+                Math.min(Math.max(size, 1), MAX_PAGE_SIZE), sort);
         
-        List<Book> lowStockBooks = bookService.getLowStockBooks(10);
-        List<Book> outOfStockBooks = bookService.getOutOfStockBooks();
+        Page<Book> booksPage = bookService.searchInventory(
+                keyword, categoryId, stockStatus, LOW_STOCK_THRESHOLD, pageable);
+        InventorySummaryVm summary = bookService.getInventorySummary(LOW_STOCK_THRESHOLD);
         
-        model.addAttribute("allBooks", filteredBooks);
-        model.addAttribute("lowStockBooks", lowStockBooks);
-        model.addAttribute("outOfStockBooks", outOfStockBooks);
-        model.addAttribute("lowStockCount", lowStockBooks.size());
-        model.addAttribute("outOfStockCount", outOfStockBooks.size());
-        model.addAttribute("totalBooks", allBooks.size());
-        model.addAttribute("filteredCount", filteredBooks.size());
+        model.addAttribute("allBooks", booksPage.getContent());
+        model.addAttribute("booksPage", booksPage);
+        model.addAttribute("lowStockBooks", bookService.getLowStockBooks(LOW_STOCK_THRESHOLD, ALERT_LIST_LIMIT));
+        model.addAttribute("outOfStockBooks", bookService.getOutOfStockBooks(ALERT_LIST_LIMIT));
+        model.addAttribute("lowStockCount", summary.lowStockCount());
+        model.addAttribute("outOfStockCount", summary.outOfStockCount());
+        model.addAttribute("totalBooks", summary.totalBooks());
+        model.addAttribute("filteredCount", booksPage.getTotalElements());
         
-        // Truyền categories và filter params
+        // Truyền categories, filter, sort và paging params
         model.addAttribute("categories", categoryService.getAllCategories());
         model.addAttribute("keyword", keyword);
         model.addAttribute("categoryId", categoryId);
         model.addAttribute("stockStatus", stockStatus);
+        model.addAttribute("currentPage", booksPage.getNumber());
+        model.addAttribute("pageSize", booksPage.getSize());
+        model.addAttribute("sortBy", sortBy);
+        model.addAttribute("sortDir", "desc".equalsIgnoreCase(sortDir) ? "desc" : "asc");
         
         return "admin/inventory";
     }
@@ -1,33 +1,154 @@
 package nhom2.NguyenTanSang.daos;
-import lombok.Data;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
-@Data
-public class Cart {
-    private List<Item> cartItems = new ArrayList<>();
+import lombok.Getter;
+import lombok.Setter;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Giỏ hàng trong session
+ * - Các dòng lưu trong LinkedHashMap theo bookId (giữ thứ tự thêm vào): thêm/xóa/sửa O(1)
+ * - Tổng số lượng và tổng tiền cộng dồn theo từng thao tác, đọc O(1) (header gọi /cart/count mỗi trang)
+ * - Mọi thay đổi dòng phải đi qua Cart để tổng luôn đúng; getCartItems() chỉ đọc
+ * - Tự ghi dạng nhị phân gọn (Externalizable) khi session được lưu/đồng bộ giữa các node
+ */
+public class Cart implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    // Tăng khi đổi định dạng ghi để session cũ bị từ chối thay vì đọc sai
+    private static final byte FORMAT_VERSION = 1;
+
+    private final Map<Long, Item> items = new LinkedHashMap<>();
+    @Getter
+    private int totalQuantity;
+    @Getter
+    private double totalPrice;
+    // Version của CatalogPriceSnapshot lần cuối giỏ hàng được định giá lại (-1 = chưa định giá)
+    @Getter
+    @Setter
+    private long priceVersion = -1;
+
+    public Collection<Item> getCartItems() {
+        return Collections.unmodifiableCollection(items.values());
+    }
+
     public void addItems(Item item) {
-        boolean isExist = cartItems.stream()
-                .filter(i -> Objects.equals(i.getBookId(),
-                        item.getBookId()))
-                .findFirst()
-                .map(i -> {
-                    i.setQuantity(i.getQuantity() +
-                            item.getQuantity());
-                    return true;
-                })
-                .orElse(false);
-        if (!isExist) {
-            cartItems.add(item);
+        Item existing = items.get(item.getBookId());
+        if (existing != null) {
+            existing.setQuantity(existing.getQuantity() + item.getQuantity());
+            addToTotals(item.getQuantity(), existing.getPrice());
+        } else {
+            items.put(item.getBookId(), item);
+            addToTotals(item.getQuantity(), item.getPrice());
         }
     }
+
     public void removeItems(Long bookId) {
-        cartItems.removeIf(item -> Objects.equals(item.getBookId(),
-                bookId));
+        Item removed = items.remove(bookId);
+        if (removed != null) {
+            addToTotals(-removed.getQuantity(), removed.getPrice());
+        }
+        if (items.isEmpty()) {
+            // tránh sai số cộng dồn của double khi giỏ đã trống
+            totalPrice = 0;
+        }
     }
+
+    /**
+     * Đổi số lượng một dòng; số lượng <= 0 thì bỏ dòng khỏi giỏ
+     */
     public void updateItems(Long bookId, Integer quantity) {
-        cartItems.stream()
-                .filter(item -> Objects.equals(item.getBookId(), bookId))
-                .forEach(item -> item.setQuantity(quantity));
+        Item item = items.get(bookId);
+        if (item == null || quantity == null) {
+            return;
+        }
+        if (quantity <= 0) {
+            removeItems(bookId);
+            return;
+        }
+        addToTotals(quantity - item.getQuantity(), item.getPrice());
+        item.setQuantity(quantity);
+    }
+
+    /**
+     * Cập nhật giá/tên/ảnh của một dòng theo danh mục hiện tại
+     */
+    public void updateCatalog(Long bookId, Double price, String bookName, String bookImage) {
+        Item item = items.get(bookId);
+        if (item == null) {
+            return;
+        }
+        totalPrice += item.getQuantity() * (priceOf(price) - priceOf(item.getPrice()));
+        item.setPrice(price);
+        item.setBookName(bookName);
+        item.setBookImage(bookImage);
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    private void addToTotals(int quantity, Double price) {
+        totalQuantity += quantity;
+        totalPrice += quantity * priceOf(price);
+    }
+
+    private static double priceOf(Double price) {
+        return price != null ? price : 0;
+    }
+
+    /**
+     * Định dạng: version, số dòng, rồi từng dòng (bookId, quantity, price, bookName, bookImage)
+     * Tổng không được ghi mà tính lại khi đọc; priceVersion không ghi vì version ảnh chụp giá
+     * chỉ có nghĩa trong một JVM - giỏ hàng đọc lại sẽ được định giá lại ở lần truy cập đầu
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(items.size());
+        for (Item item : items.values()) {
+            out.writeLong(item.getBookId());
+            out.writeInt(item.getQuantity());
+            out.writeDouble(priceOf(item.getPrice()));
+            writeNullableUtf(out, item.getBookName());
+            writeNullableUtf(out, item.getBookImage());
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte format = in.readByte();
+        if (format != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported cart format: " + format);
+        }
+        priceVersion = -1;
+        int size = in.readInt();
+        items.clear();
+        totalQuantity = 0;
+        totalPrice = 0;
+        for (int i = 0; i < size; i++) {
+            long bookId = in.readLong();
+            int quantity = in.readInt();
+            double price = in.readDouble();
+            String bookName = readNullableUtf(in);
+            String bookImage = readNullableUtf(in);
+            addItems(new Item(bookId, bookName, price, quantity, bookImage));
+        }
+    }
+
+    private static void writeNullableUtf(ObjectOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUtf(ObjectInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
     }
-}
\ No newline at end of file
+}
@@ -20,7 +20,7 @@ public class SePayQrCodeDto {
     private String bankCode;         // Mã ngân hàng (MB, VCB, TCB...)
     private String bankName;         // Tên ngân hàng đầy đủ
     private Long amount;             // Số tiền (VNĐ)
-    private String content;          // Nội dung CK: "QLSACH 123"
+    private String content;          // Nội dung CK: "ORDER_123"
     private String description;      // Mô tả (alias của content)
     private Long invoiceId;          // ID invoice
 }
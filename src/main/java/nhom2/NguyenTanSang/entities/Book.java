@@ -17,7 +17,12 @@ import java.util.Objects;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "book")
+@Table(name = "book", indexes = {
+        // Phục vụ bộ đếm và danh sách sắp hết/hết hàng ở trang quản lý kho
+        @Index(name = "idx_book_stock", columnList = "stock"),
+        // Cho phép sắp xếp danh sách sách theo đánh giá
+        @Index(name = "idx_book_rating_avg", columnList = "rating_avg")
+})
 public class Book {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -55,6 +60,24 @@ public class Book {
     @Column(name = "image_url", columnDefinition = "TEXT")
     private String imageUrl;
 
+    // Optimistic locking: dòng cũ được gán 0 khi thêm cột
+    @Version
+    @Column(name = "version", columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private Long version;
+
+    // Tổng hợp đánh giá - chỉ được ghi bằng câu UPDATE nguyên tử trong ReviewService
+    @Column(name = "rating_sum", columnDefinition = "BIGINT NOT NULL DEFAULT 0",
+            insertable = false, updatable = false)
+    private Long ratingSum;
+
+    @Column(name = "rating_count", columnDefinition = "INT NOT NULL DEFAULT 0",
+            insertable = false, updatable = false)
+    private Integer ratingCount;
+
+    @Column(name = "rating_avg", columnDefinition = "DOUBLE NOT NULL DEFAULT 0",
+            insertable = false, updatable = false)
+    private Double averageRating;
+
     @OneToMany(mappedBy = "book", cascade = CascadeType.ALL)
     @ToString.Exclude
     @Builder.Default
@@ -98,17 +121,11 @@ public class Book {
 
     // Review management methods
     public double getAverageRating() {
-        if (reviews == null || reviews.isEmpty()) {
-            return 0.0;
-        }
-        return reviews.stream()
-            .mapToInt(Review::getRating)
-            .average()
-            .orElse(0.0);
+        return averageRating != null ? averageRating : 0.0;
     }
 
     public int getTotalReviews() {
-        return reviews != null ? reviews.size() : 0;
+        return ratingCount != null ? ratingCount : 0;
     }
 
     // Image URL management - Return safe image URL or default
@@ -0,0 +1,38 @@
+package nhom2.NguyenTanSang.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDate;
+
+/**
+ * Bảng tổng hợp số lượng sách bán theo ngày (chỉ tính đơn hàng COMPLETED)
+ */
+@Entity
+@Table(name = "book_sales_daily_rollup",
+       uniqueConstraints = @UniqueConstraint(name = "uk_book_sales_daily_rollup_date_book",
+               columnNames = {"sales_date", "book_id"}))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BookSalesDailyRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sales_date", nullable = false)
+    private LocalDate salesDate;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "book_id", referencedColumnName = "id", nullable = false)
+    private Book book;
+
+    @Column(name = "units_sold", nullable = false)
+    @Builder.Default
+    private Long unitsSold = 0L;
+
+    @Column(name = "revenue", nullable = false)
+    @Builder.Default
+    private Double revenue = 0.0;
+}
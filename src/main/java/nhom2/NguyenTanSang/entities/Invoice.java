@@ -17,10 +17,17 @@ import java.util.Objects;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "invoices")
+@Table(name = "invoices", indexes = {
+        // Phục vụ các truy vấn thống kê doanh thu theo trạng thái + khoảng thời gian
+        @Index(name = "idx_invoices_status_date", columnList = "status, invoice_date")
+})
 public class Invoice {
+    // Cấp id theo khối từ bảng id_generators (xem IdGeneratorSeeder), không dùng IDENTITY để Hibernate gom INSERT thành batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "invoice_id_gen")
+    @TableGenerator(name = "invoice_id_gen", table = "id_generators",
+            pkColumnName = "gen_name", valueColumnName = "next_val",
+            pkColumnValue = "invoices", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
@@ -78,6 +85,11 @@ public class Invoice {
     private String qrCodeUrl; // URL QR code thanh toán
     // ==============================================================
 
+    // Optimistic locking: dòng cũ được gán 0 khi thêm cột
+    @Version
+    @Column(name = "version", columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private Long version;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", referencedColumnName = "id")
     @ToString.Exclude
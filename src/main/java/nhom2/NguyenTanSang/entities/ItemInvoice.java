@@ -15,14 +15,22 @@ import java.util.Objects;
 @Entity
 @Table(name = "item_invoice")
 public class ItemInvoice {
+    // Cấp id theo khối từ bảng id_generators (xem IdGeneratorSeeder), không dùng IDENTITY để Hibernate gom INSERT thành batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "item_invoice_id_gen")
+    @TableGenerator(name = "item_invoice_id_gen", table = "id_generators",
+            pkColumnName = "gen_name", valueColumnName = "next_val",
+            pkColumnValue = "item_invoice", allocationSize = 50)
     private Long Id;
 
     @Column(name = "quantity")
     @Positive(message = "Quantity must be positive")
     private int quantity;
 
+    // Đơn giá lúc đặt hàng (null với dòng tạo trước khi có cột này)
+    @Column(name = "price")
+    private Double price;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "book_id", referencedColumnName = "id")
     @ToString.Exclude
@@ -0,0 +1,47 @@
+package nhom2.NguyenTanSang.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.Instant;
+
+/**
+ * Refresh token đã cấp (mỗi dòng là một token, cùng familyId là một chuỗi xoay vòng)
+ * - usedAt != null: token đã được đổi lấy token mới, dùng lại lần nữa = bị đánh cắp
+ * - revoked = true: cả family đã bị thu hồi
+ */
+@Entity
+@Table(name = "refresh_tokens",
+       uniqueConstraints = @UniqueConstraint(name = "uk_refresh_tokens_token_id", columnNames = "token_id"),
+       indexes = {
+               @Index(name = "idx_refresh_tokens_family", columnList = "family_id"),
+               @Index(name = "idx_refresh_tokens_expires_at", columnList = "expires_at")
+       })
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RefreshToken {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "token_id", length = 36, nullable = false)
+    private String tokenId;
+
+    @Column(name = "family_id", length = 36, nullable = false)
+    private String familyId;
+
+    @Column(name = "username", length = 50, nullable = false)
+    private String username;
+
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+
+    @Column(name = "used_at")
+    private Instant usedAt;
+
+    @Column(name = "revoked", nullable = false)
+    @Builder.Default
+    private boolean revoked = false;
+}
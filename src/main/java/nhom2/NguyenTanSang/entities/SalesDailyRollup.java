@@ -0,0 +1,38 @@
+package nhom2.NguyenTanSang.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDate;
+
+/**
+ * Bảng tổng hợp doanh số theo ngày và trạng thái đơn hàng
+ * Được cập nhật tăng dần mỗi khi đơn hàng được tạo hoặc đổi trạng thái
+ */
+@Entity
+@Table(name = "sales_daily_rollup",
+       uniqueConstraints = @UniqueConstraint(name = "uk_sales_daily_rollup_date_status",
+               columnNames = {"sales_date", "status"}))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SalesDailyRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sales_date", nullable = false)
+    private LocalDate salesDate;
+
+    @Column(name = "status", length = 20, nullable = false)
+    private String status;
+
+    @Column(name = "order_count", nullable = false)
+    @Builder.Default
+    private Long orderCount = 0L;
+
+    @Column(name = "revenue", nullable = false)
+    @Builder.Default
+    private Double revenue = 0.0;
+}
@@ -5,6 +5,7 @@ import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -44,6 +45,11 @@ public class User implements UserDetails {
     @Column(name = "provider", length = 50)
     private String provider;
 
+    // Version của JWT đã cấp; chỉ tăng qua IUserRepository.incrementTokenVersion (không ghi khi merge entity)
+    @Column(name = "token_version", nullable = false, updatable = false)
+    @ColumnDefault("0")
+    private int tokenVersion = 0;
+
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(
         name = "user_role",
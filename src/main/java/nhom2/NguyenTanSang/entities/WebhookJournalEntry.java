@@ -0,0 +1,82 @@
+package nhom2.NguyenTanSang.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.util.Date;
+
+/**
+ * Nhật ký webhook SePay (chỉ ghi thêm): mỗi lần SePay gọi webhook được lưu ngay một dòng
+ * rồi xử lý bất đồng bộ theo lô
+ * - id tăng dần đóng vai trò offset để xử lý lại (replay) từ một vị trí
+ * - code (mã giao dịch SePay) unique: lần gửi lại của cùng giao dịch bị bỏ qua
+ */
+@Entity
+@Table(name = "webhook_journal",
+       uniqueConstraints = @UniqueConstraint(name = "uk_webhook_journal_code", columnNames = "code"),
+       indexes = @Index(name = "idx_webhook_journal_status_id", columnList = "status, id"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class WebhookJournalEntry {
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSED = "PROCESSED";
+    public static final String IGNORED = "IGNORED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "code", length = 100)
+    private String code;
+
+    @Column(name = "sepay_id")
+    private Long sepayId;
+
+    @Column(name = "gateway", length = 50)
+    private String gateway;
+
+    @Column(name = "transaction_date", length = 50)
+    private String transactionDate;
+
+    @Column(name = "account_number", length = 50)
+    private String accountNumber;
+
+    @Column(name = "amount_in")
+    private Long amountIn;
+
+    @Column(name = "amount_out")
+    private Long amountOut;
+
+    @Column(name = "content", length = 1000)
+    private String content;
+
+    @Column(name = "reference_number", length = 100)
+    private String referenceNumber;
+
+    @Column(name = "received_at", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date receivedAt;
+
+    @Column(name = "status", length = 20, nullable = false)
+    @Builder.Default
+    private String status = PENDING;
+
+    @Column(name = "attempts", nullable = false)
+    @Builder.Default
+    private int attempts = 0;
+
+    @Column(name = "result", length = 255)
+    private String result;
+
+    @Column(name = "processed_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date processedAt;
+
+    // Thời điểm thử lại webhook lỗi (null = không thử lại nữa)
+    @Column(name = "next_attempt_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttemptAt;
+}
@@ -0,0 +1,54 @@
+package nhom2.NguyenTanSang.repositories;
+
+import jakarta.persistence.criteria.Predicate;
+import nhom2.NguyenTanSang.entities.Book;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Các điều kiện lọc sách dùng với JpaSpecificationExecutor
+ */
+public final class BookSpecifications {
+    public static final String OUT_OF_STOCK = "out_of_stock";
+    public static final String LOW_STOCK = "low_stock";
+    public static final String IN_STOCK = "in_stock";
+
+    private BookSpecifications() {
+    }
+
+    /**
+     * Bộ lọc trang quản lý kho, bỏ qua các tham số rỗng
+     * - keyword: tên sách hoặc tác giả chứa keyword (không phân biệt hoa thường)
+     * - stockStatus: out_of_stock (stock = 0), low_stock (0 < stock <= threshold), in_stock (stock > threshold)
+     */
+    public static Specification<Book> inventoryFilter(String keyword, Long categoryId,
+                                                      String stockStatus, int threshold) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+
+            if (keyword != null && !keyword.isBlank()) {
+                String pattern = "%" + keyword.trim().toLowerCase() + "%";
+                predicates.add(cb.or(
+                        cb.like(cb.lower(root.get("title")), pattern),
+                        cb.like(cb.lower(root.get("author")), pattern)));
+            }
+
+            if (categoryId != null && categoryId > 0) {
+                predicates.add(cb.equal(root.get("category").get("id"), categoryId));
+            }
+
+            if (stockStatus != null) {
+                switch (stockStatus) {
+                    case OUT_OF_STOCK -> predicates.add(cb.equal(root.get("stock"), 0));
+                    case LOW_STOCK -> predicates.add(cb.between(root.get("stock"), 1, threshold));
+                    case IN_STOCK -> predicates.add(cb.greaterThan(root.get("stock"), threshold));
+                    default -> { }
+                }
+            }
+
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+}
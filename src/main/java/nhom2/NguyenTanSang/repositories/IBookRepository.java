@@ -1,16 +1,23 @@
 package nhom2.NguyenTanSang.repositories;
 import nhom2.NguyenTanSang.entities.Book;
+import nhom2.NguyenTanSang.viewmodels.InventorySummaryVm;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 @Repository
 public interface IBookRepository extends
-        PagingAndSortingRepository<Book, Long>, JpaRepository<Book, Long> {
+        PagingAndSortingRepository<Book, Long>, JpaRepository<Book, Long>,
+        JpaSpecificationExecutor<Book>, IBookStockRepository {
     @Query("""
             SELECT b FROM Book b
             WHERE b.title LIKE %?1%
@@ -19,6 +26,17 @@ public interface IBookRepository extends
             """)
     List<Book> searchBook(String keyword);
     
+    // Dùng khi dựng chỉ mục tìm kiếm trong bộ nhớ
+    @Query("SELECT b FROM Book b LEFT JOIN FETCH b.category")
+    List<Book> findAllWithCategory();
+    
+    // Nạp các sách theo id (kèm category) cho kết quả tìm kiếm
+    @EntityGraph(attributePaths = "category")
+    List<Book> findByIdIn(Collection<Long> ids);
+    
+    @EntityGraph(attributePaths = "category")
+    Page<Book> findByIdIn(Collection<Long> ids, Pageable pageable);
+    
     // Tìm kiếm với phân trang
     @Query("SELECT b FROM Book b WHERE " +
            "(:keyword IS NULL OR LOWER(b.title) LIKE LOWER(CONCAT('%', :keyword, '%')) " +
@@ -50,7 +68,51 @@ public interface IBookRepository extends
     );
     
     // Inventory management queries
-    List<Book> findByStockLessThanAndIsAvailableTrue(int threshold);
-    List<Book> findByStockEquals(int stock);
+    @Override
+    @EntityGraph(attributePaths = "category")
+    Page<Book> findAll(Specification<Book> spec, Pageable pageable);
+    
+    @EntityGraph(attributePaths = "category")
+    List<Book> findByStock(int stock, Pageable pageable);
+    
+    @EntityGraph(attributePaths = "category")
+    List<Book> findByStockBetween(int minStock, int maxStock, Pageable pageable);
+    
     List<Book> findByIsAvailableFalse();
+    
+    /**
+     * Cộng dồn thay đổi đánh giá vào cột tổng hợp của sách
+     * rating_avg được gán trước vì MySQL đánh giá SET từ trái sang phải
+     */
+    @Modifying
+    @Query("UPDATE Book b SET " +
+           "b.averageRating = CASE WHEN b.ratingCount + :countDelta <= 0 THEN 0.0 " +
+           "ELSE (b.ratingSum + :sumDelta) * 1.0 / (b.ratingCount + :countDelta) END, " +
+           "b.ratingSum = b.ratingSum + :sumDelta, " +
+           "b.ratingCount = b.ratingCount + :countDelta " +
+           "WHERE b.id = :bookId")
+    int applyRatingDelta(@Param("bookId") Long bookId,
+                         @Param("sumDelta") long sumDelta,
+                         @Param("countDelta") int countDelta);
+    
+    // Tính lại cột tổng hợp đánh giá của toàn bộ sách từ bảng review (backfill)
+    @Modifying
+    @Query(value = "UPDATE book b " +
+                   "LEFT JOIN (SELECT book_id, SUM(rating) AS s, COUNT(*) AS c FROM review GROUP BY book_id) r " +
+                   "ON r.book_id = b.id " +
+                   "SET b.rating_avg = COALESCE(r.s / r.c, 0), " +
+                   "b.rating_sum = COALESCE(r.s, 0), " +
+                   "b.rating_count = COALESCE(r.c, 0)", nativeQuery = true)
+    int rebuildRatingAggregates();
+    
+    @Query("SELECT COALESCE(SUM(b.ratingCount), 0) FROM Book b")
+    Long sumRatingCount();
+    
+    // Đếm tổng số sách, hết hàng và sắp hết hàng trong một lần quét
+    @Query("SELECT new nhom2.NguyenTanSang.viewmodels.InventorySummaryVm(" +
+           "COUNT(b), " +
+           "COALESCE(SUM(CASE WHEN b.stock = 0 THEN 1 ELSE 0 END), 0), " +
+           "COALESCE(SUM(CASE WHEN b.stock > 0 AND b.stock <= :threshold THEN 1 ELSE 0 END), 0)) " +
+           "FROM Book b")
+    InventorySummaryVm getInventorySummary(@Param("threshold") int threshold);
 }
\ No newline at end of file
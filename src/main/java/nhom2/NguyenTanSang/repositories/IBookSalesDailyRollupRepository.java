@@ -0,0 +1,67 @@
+package nhom2.NguyenTanSang.repositories;
+import nhom2.NguyenTanSang.entities.BookSalesDailyRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public interface IBookSalesDailyRollupRepository extends JpaRepository<BookSalesDailyRollup, Long> {
+
+    /**
+     * Cộng dồn (upsert) số lượng bán của từng sách trong một hóa đơn
+     * sign = 1 khi đơn hàng chuyển sang COMPLETED, -1 khi rời khỏi COMPLETED
+     * Doanh thu theo đơn giá lưu trên dòng hóa đơn; dòng cũ chưa có đơn giá thì lấy giá hiện tại của sách
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO book_sales_daily_rollup (sales_date, book_id, units_sold, revenue) " +
+                   "SELECT :salesDate, ii.book_id, :sign * SUM(ii.quantity), " +
+                   ":sign * SUM(ii.quantity * COALESCE(ii.price, b.price)) " +
+                   "FROM item_invoice ii JOIN book b ON b.id = ii.book_id " +
+                   "WHERE ii.invoice_id = :invoiceId " +
+                   "GROUP BY ii.book_id " +
+                   "ON DUPLICATE KEY UPDATE units_sold = units_sold + VALUES(units_sold), " +
+                   "revenue = revenue + VALUES(revenue)", nativeQuery = true)
+    int upsertFromInvoice(@Param("salesDate") LocalDate salesDate,
+                          @Param("invoiceId") Long invoiceId,
+                          @Param("sign") int sign);
+
+    /**
+     * Tính lại toàn bộ từ lịch sử hóa đơn COMPLETED (dùng cho job rebuild)
+     * zoneOffset: độ lệch múi giờ của bảng tổng hợp so với UTC, ví dụ "+07:00"
+     */
+    @Modifying
+    @Query(value = "INSERT INTO book_sales_daily_rollup (sales_date, book_id, units_sold, revenue) " +
+                   "SELECT DATE(CONVERT_TZ(COALESCE(i.invoice_date, UTC_TIMESTAMP()), '+00:00', :zoneOffset)), " +
+                   "ii.book_id, SUM(ii.quantity), SUM(ii.quantity * COALESCE(ii.price, b.price)) " +
+                   "FROM item_invoice ii " +
+                   "JOIN invoices i ON i.id = ii.invoice_id " +
+                   "JOIN book b ON b.id = ii.book_id " +
+                   "WHERE i.status = 'COMPLETED' " +
+                   "GROUP BY DATE(CONVERT_TZ(COALESCE(i.invoice_date, UTC_TIMESTAMP()), '+00:00', :zoneOffset)), ii.book_id",
+           nativeQuery = true)
+    int rebuildFromInvoices(@Param("zoneOffset") String zoneOffset);
+
+    @Modifying
+    @Query("DELETE FROM BookSalesDailyRollup r")
+    int deleteAllRows();
+
+    // Lấy danh sách sách bán chạy nhất
+    @Query("SELECT new map(b.title as bookTitle, SUM(r.unitsSold) as totalSold, " +
+           "SUM(r.revenue) as revenue) " +
+           "FROM BookSalesDailyRollup r JOIN r.book b " +
+           "GROUP BY b.id, b.title " +
+           "HAVING SUM(r.unitsSold) > 0 " +
+           "ORDER BY SUM(r.unitsSold) DESC")
+    List<Map<String, Object>> findBestSellingBooks(Pageable pageable);
+
+    // Tổng số lượng bán theo sách - mỗi phần tử: [bookId, số lượng]
+    @Query("SELECT r.book.id, SUM(r.unitsSold) FROM BookSalesDailyRollup r GROUP BY r.book.id")
+    List<Object[]> sumUnitsSoldGroupByBook();
+}
@@ -0,0 +1,18 @@
+package nhom2.NguyenTanSang.repositories;
+
+import java.util.Map;
+
+/**
+ * Fragment repository cho các thao tác kho chạy trực tiếp bằng JDBC batch
+ * (được IBookRepository kế thừa, Spring Data tự ghép với IBookStockRepositoryImpl)
+ */
+public interface IBookStockRepository {
+    /**
+     * Trừ kho có điều kiện cho nhiều sách trong một batch:
+     * UPDATE book SET stock = stock - ? WHERE id = ? AND stock >= ?
+     *
+     * @param quantities bookId -> số lượng cần trừ, duyệt theo thứ tự của map
+     * @return số dòng được cập nhật của từng câu lệnh, cùng thứ tự với quantities
+     */
+    int[] reserveStock(Map<Long, Integer> quantities);
+}
@@ -0,0 +1,46 @@
+package nhom2.NguyenTanSang.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import nhom2.NguyenTanSang.entities.Book;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class IBookStockRepositoryImpl implements IBookStockRepository {
+    // is_available đặt trước stock: MySQL gán SET lần lượt từ trái sang phải,
+    // nên điều kiện phải đọc giá trị stock cũ (stock = quantity nghĩa là về 0)
+    private static final String RESERVE_STOCK_SQL = """
+            UPDATE book
+            SET is_available = CASE WHEN stock = ? THEN FALSE ELSE is_available END,
+                stock = stock - ?,
+                version = version + 1
+            WHERE id = ? AND stock >= ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int[] reserveStock(Map<Long, Integer> quantities) {
+        List<Object[]> batchArgs = quantities.entrySet().stream()
+                .map(entry -> new Object[]{
+                        entry.getValue(), entry.getValue(), entry.getKey(), entry.getValue()
+                })
+                .toList();
+        // UPDATE chạy qua JDBC, không qua Hibernate: ghi các thay đổi đang chờ trước,
+        // rồi gỡ các Book đã nạp khỏi persistence context để lần đọc sau lấy tồn kho/version mới
+        entityManager.flush();
+        int[] updatedRows = jdbcTemplate.batchUpdate(RESERVE_STOCK_SQL, batchArgs);
+        for (Long bookId : quantities.keySet()) {
+            // getReference không chạy SQL: trả về Book đang được quản lý hoặc một proxy chưa nạp
+            entityManager.detach(entityManager.getReference(Book.class, bookId));
+        }
+        return updatedRows;
+    }
+}
@@ -2,9 +2,11 @@ package nhom2.NguyenTanSang.repositories;
 import nhom2.NguyenTanSang.entities.Invoice;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Map;
@@ -41,14 +43,19 @@ public interface IInvoiceRepository extends JpaRepository<Invoice,Long>{
         @Param("bookId") Long bookId
     );
     
-    // Tính tổng doanh thu theo năm và tháng
-    @Query("SELECT SUM(i.price) FROM Invoice i WHERE YEAR(i.invoiceDate) = :year " +
-           "AND MONTH(i.invoiceDate) = :month AND i.status = 'COMPLETED'")
-    Double sumRevenueByYearAndMonth(@Param("year") int year, @Param("month") int month);
-    
     // Lấy danh sách đơn hàng gần đây
     @Query("SELECT new map(i.id as id, i.invoiceDate as date, i.price as total, " +
            "i.status as status, u.username as username) " +
            "FROM Invoice i JOIN i.user u ORDER BY i.invoiceDate DESC")
     List<Map<String, Object>> findRecentOrders(Pageable pageable);
+
+    /**
+     * Ghi URL ảnh QR, chỉ khi chưa có hoặc khác giá trị hiện tại
+     * Cập nhật trực tiếp một cột: không tải/ghi lại cả hóa đơn, không tăng version
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Invoice i SET i.qrCodeUrl = :url " +
+           "WHERE i.id = :id AND (i.qrCodeUrl IS NULL OR i.qrCodeUrl <> :url)")
+    int updateQrCodeUrl(@Param("id") Long id, @Param("url") String url);
 }
@@ -3,6 +3,7 @@ import nhom2.NguyenTanSang.entities.ItemInvoice;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -14,10 +15,15 @@ public interface IItemInvoiceRepository extends
     
     // Lấy danh sách sách bán chạy nhất
     @Query("SELECT new map(b.title as bookTitle, SUM(ii.quantity) as totalSold, " +
-           "SUM(ii.quantity * b.price) as revenue) " +
+           "SUM(ii.quantity * COALESCE(ii.price, b.price)) as revenue) " +
            "FROM ItemInvoice ii JOIN ii.book b JOIN ii.invoice i " +
            "WHERE i.status = 'COMPLETED' " +
            "GROUP BY b.id, b.title " +
            "ORDER BY SUM(ii.quantity) DESC")
     List<Map<String, Object>> findBestSellingBooks(Pageable pageable);
+    
+    // Số lượng theo sách trong một hóa đơn - mỗi phần tử: [bookId, số lượng]
+    @Query("SELECT ii.book.id, SUM(ii.quantity) FROM ItemInvoice ii " +
+           "WHERE ii.invoice.id = :invoiceId GROUP BY ii.book.id")
+    List<Object[]> sumQuantityByBookForInvoice(@Param("invoiceId") Long invoiceId);
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package nhom2.NguyenTanSang.repositories;
+import nhom2.NguyenTanSang.entities.RefreshToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface IRefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+
+    /**
+     * Đánh dấu token đã dùng; chỉ thành công (trả về 1) cho request đầu tiên
+     */
+    @Modifying
+    @Query("UPDATE RefreshToken t SET t.usedAt = :now " +
+           "WHERE t.tokenId = :tokenId AND t.usedAt IS NULL AND t.revoked = false")
+    int markUsed(@Param("tokenId") String tokenId, @Param("now") Instant now);
+
+    @Modifying
+    @Query("UPDATE RefreshToken t SET t.revoked = true WHERE t.familyId = :familyId")
+    int revokeFamily(@Param("familyId") String familyId);
+
+    // Các token còn hạn nhưng không dùng được nữa: nạp vào chỉ mục thu hồi khi khởi động
+    @Query("SELECT t.tokenId, t.expiresAt FROM RefreshToken t " +
+           "WHERE t.expiresAt > :now AND t.usedAt IS NOT NULL AND t.revoked = false")
+    List<Object[]> findUsedTokens(@Param("now") Instant now);
+
+    @Query("SELECT t.familyId, MAX(t.expiresAt) FROM RefreshToken t " +
+           "WHERE t.expiresAt > :now AND t.revoked = true GROUP BY t.familyId")
+    List<Object[]> findRevokedFamilies(@Param("now") Instant now);
+
+    @Modifying
+    @Query("DELETE FROM RefreshToken t WHERE t.expiresAt <= :now")
+    int deleteExpired(@Param("now") Instant now);
+}
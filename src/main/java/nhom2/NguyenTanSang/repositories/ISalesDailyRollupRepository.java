@@ -0,0 +1,71 @@
+package nhom2.NguyenTanSang.repositories;
+import nhom2.NguyenTanSang.entities.SalesDailyRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface ISalesDailyRollupRepository extends JpaRepository<SalesDailyRollup, Long> {
+
+    /**
+     * Cộng dồn (upsert) số đơn và doanh thu cho một ngày/trạng thái
+     * orderDelta/revenueDelta âm khi đơn hàng rời khỏi trạng thái này
+     */
+    @Modifying
+    @Query(value = "INSERT INTO sales_daily_rollup (sales_date, status, order_count, revenue) " +
+                   "VALUES (:salesDate, :status, :orderDelta, :revenueDelta) " +
+                   "ON DUPLICATE KEY UPDATE order_count = order_count + VALUES(order_count), " +
+                   "revenue = revenue + VALUES(revenue)", nativeQuery = true)
+    int upsert(@Param("salesDate") LocalDate salesDate,
+               @Param("status") String status,
+               @Param("orderDelta") long orderDelta,
+               @Param("revenueDelta") double revenueDelta);
+
+    /**
+     * Tính lại toàn bộ từ lịch sử hóa đơn (dùng cho job rebuild)
+     * invoice_date lưu theo UTC; zoneOffset (ví dụ "+07:00") đổi sang múi giờ của bảng tổng hợp
+     */
+    @Modifying
+    @Query(value = "INSERT INTO sales_daily_rollup (sales_date, status, order_count, revenue) " +
+                   "SELECT DATE(CONVERT_TZ(COALESCE(i.invoice_date, UTC_TIMESTAMP()), '+00:00', :zoneOffset)), " +
+                   "i.status, COUNT(*), COALESCE(SUM(i.total), 0) " +
+                   "FROM invoices i " +
+                   "GROUP BY DATE(CONVERT_TZ(COALESCE(i.invoice_date, UTC_TIMESTAMP()), '+00:00', :zoneOffset)), i.status",
+           nativeQuery = true)
+    int rebuildFromInvoices(@Param("zoneOffset") String zoneOffset);
+
+    @Modifying
+    @Query("DELETE FROM SalesDailyRollup r")
+    int deleteAllRows();
+
+    @Query("SELECT COALESCE(SUM(r.revenue), 0) FROM SalesDailyRollup r WHERE r.status = :status")
+    Double sumRevenueByStatus(@Param("status") String status);
+
+    @Query("SELECT COALESCE(SUM(r.orderCount), 0) FROM SalesDailyRollup r WHERE r.status = :status")
+    Long sumOrderCountByStatus(@Param("status") String status);
+
+    // Số đơn theo từng trạng thái - mỗi phần tử: [trạng thái, số đơn]
+    @Query("SELECT r.status, SUM(r.orderCount) FROM SalesDailyRollup r GROUP BY r.status")
+    List<Object[]> sumOrderCountGroupByStatus();
+
+    // Doanh thu theo tháng trong khoảng [from, to) - mỗi phần tử: [năm, tháng, doanh thu]
+    @Query("SELECT YEAR(r.salesDate), MONTH(r.salesDate), SUM(r.revenue) FROM SalesDailyRollup r " +
+           "WHERE r.status = :status AND r.salesDate >= :from AND r.salesDate < :to " +
+           "GROUP BY YEAR(r.salesDate), MONTH(r.salesDate)")
+    List<Object[]> sumRevenueByMonth(@Param("status") String status,
+                                     @Param("from") LocalDate from,
+                                     @Param("to") LocalDate to);
+
+    // Doanh thu theo ngày trong khoảng [from, to) - mỗi phần tử: [ngày, doanh thu]
+    @Query("SELECT r.salesDate, SUM(r.revenue) FROM SalesDailyRollup r " +
+           "WHERE r.status = :status AND r.salesDate >= :from AND r.salesDate < :to " +
+           "GROUP BY r.salesDate")
+    List<Object[]> sumRevenueByDay(@Param("status") String status,
+                                   @Param("from") LocalDate from,
+                                   @Param("to") LocalDate to);
+}
@@ -3,6 +3,9 @@ package nhom2.NguyenTanSang.repositories;
 import nhom2.NguyenTanSang.entities.User;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -16,4 +19,12 @@ public interface IUserRepository extends JpaRepository<User, Long> {
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
     boolean existsByPhone(String phone);
+
+    @Query("SELECT u.tokenVersion FROM User u WHERE u.username = :username")
+    Optional<Integer> findTokenVersionByUsername(@Param("username") String username);
+
+    // Chạy trong transaction của caller: version mới được commit cùng thay đổi tài khoản
+    @Modifying
+    @Query("UPDATE User u SET u.tokenVersion = u.tokenVersion + 1 WHERE u.username = :username")
+    int incrementTokenVersion(@Param("username") String username);
 }
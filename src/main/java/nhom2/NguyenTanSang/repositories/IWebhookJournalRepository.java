@@ -0,0 +1,66 @@
+package nhom2.NguyenTanSang.repositories;
+import nhom2.NguyenTanSang.entities.WebhookJournalEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface IWebhookJournalRepository extends JpaRepository<WebhookJournalEntry, Long> {
+
+    /**
+     * Ghi thêm một webhook; trùng code thì không ghi (trả về 0)
+     * Dùng INSERT IGNORE: với ON DUPLICATE KEY UPDATE, Connector/J mặc định trả về số dòng "tìm thấy"
+     * nên lần gửi trùng vẫn ra 1
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO webhook_journal (code, sepay_id, gateway, transaction_date, account_number, " +
+                   "amount_in, amount_out, content, reference_number, received_at, status, attempts) " +
+                   "VALUES (:code, :sepayId, :gateway, :transactionDate, :accountNumber, " +
+                   ":amountIn, :amountOut, :content, :referenceNumber, :receivedAt, 'PENDING', 0)", nativeQuery = true)
+    int append(@Param("code") String code,
+               @Param("sepayId") Long sepayId,
+               @Param("gateway") String gateway,
+               @Param("transactionDate") String transactionDate,
+               @Param("accountNumber") String accountNumber,
+               @Param("amountIn") Long amountIn,
+               @Param("amountOut") Long amountOut,
+               @Param("content") String content,
+               @Param("referenceNumber") String referenceNumber,
+               @Param("receivedAt") Date receivedAt);
+
+    /**
+     * Lô tiếp theo cần xử lý, theo thứ tự ghi: webhook đang chờ và webhook lỗi đã tới hạn thử lại
+     */
+    @Query("SELECT e FROM WebhookJournalEntry e WHERE e.status = 'PENDING' " +
+           "OR (e.status = 'FAILED' AND e.nextAttemptAt IS NOT NULL AND e.nextAttemptAt <= :now) " +
+           "ORDER BY e.id ASC")
+    List<WebhookJournalEntry> findDue(@Param("now") Date now, Pageable pageable);
+
+    // Gọi từ thread xử lý nền (không có transaction bao ngoài)
+    @Modifying
+    @Transactional
+    @Query("UPDATE WebhookJournalEntry e SET e.status = :status, e.result = :result, " +
+           "e.processedAt = :processedAt, e.nextAttemptAt = :nextAttemptAt, e.attempts = e.attempts + 1 " +
+           "WHERE e.id = :id")
+    int markDone(@Param("id") Long id,
+                 @Param("status") String status,
+                 @Param("result") String result,
+                 @Param("processedAt") Date processedAt,
+                 @Param("nextAttemptAt") Date nextAttemptAt);
+
+    /**
+     * Đưa các webhook từ offset trở đi về trạng thái chờ để xử lý lại
+     * Xóa số lần thử và kết quả cũ để webhook đã hết lượt thử lại có đủ lượt mới
+     */
+    @Modifying
+    @Query("UPDATE WebhookJournalEntry e SET e.status = 'PENDING', e.attempts = 0, e.nextAttemptAt = NULL, " +
+           "e.result = NULL, e.processedAt = NULL WHERE e.id >= :fromId")
+    int resetFrom(@Param("fromId") Long fromId);
+}
@@ -0,0 +1,363 @@
+package nhom2.NguyenTanSang.services;
+
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import nhom2.NguyenTanSang.utils.TextNormalizer;
+import nhom2.NguyenTanSang.viewmodels.SearchFacetsVm;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Chỉ mục tìm kiếm toàn văn trong bộ nhớ cho danh mục sách
+ * - Inverted index trên title/author/tên category (đã bỏ dấu tiếng Việt)
+ * - Xếp hạng bằng BM25, trọng số theo trường: title > author > category
+ * - Mọi từ trong truy vấn đều phải khớp; từ cuối cùng được khớp theo tiền tố
+ *   để tìm kiếm theo từng phím gõ vẫn có kết quả
+ * - Cập nhật tăng dần sau khi transaction thêm/sửa/xóa sách commit
+ * - Mỗi sách có một số thứ tự (ordinal) dày đặc để tập kết quả là một BitSet,
+ *   dùng chung cho danh sách kết quả và đếm facet trong một lần duyệt
+ */
+@Service
+@Slf4j
+public class BookSearchIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int TITLE_WEIGHT = 3;
+    private static final int AUTHOR_WEIGHT = 2;
+    private static final int CATEGORY_WEIGHT = 1;
+    private static final Comparator<Hit> HIT_ORDER = Comparator.comparingDouble(Hit::score).reversed()
+            .thenComparing(hit -> hit.document().id());
+
+    /**
+     * Dữ liệu của một sách trong chỉ mục (bản sao bất biến, không phải entity)
+     */
+    public record Document(Long id, String title, String author,
+                           Long categoryId, String categoryName, Double price) {
+    }
+
+    public record Hit(Document document, double score) {
+    }
+
+    /**
+     * Kết quả tìm kiếm có facet: hits đã áp dụng mọi bộ lọc, facets tính trên cùng tập khớp keyword
+     */
+    public record FacetedResult(List<Hit> hits, SearchFacetsVm facets) {
+    }
+
+    private record IndexedDocument(Document document, Map<String, Integer> termFrequencies, int length) {
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<IndexedDocument> slots = new ArrayList<>();
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final BitSet live = new BitSet();
+    private final Map<Long, BitSet> categoryBits = new HashMap<>();
+    private final TreeMap<String, Map<Integer, Integer>> postings = new TreeMap<>();
+    private long totalLength;
+    private volatile boolean ready;
+
+    /**
+     * Dựng lại toàn bộ chỉ mục
+     */
+    public void rebuild(Collection<Document> all) {
+        lock.writeLock().lock();
+        try {
+            slots.clear();
+            ordinals.clear();
+            freeSlots.clear();
+            live.clear();
+            categoryBits.clear();
+            postings.clear();
+            totalLength = 0;
+            all.forEach(this::addInternal);
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Book search index built: {} books, {} terms", all.size(), postings.size());
+    }
+
+    /**
+     * Chỉ mục đã được dựng xong chưa (trước đó tìm kiếm nên dùng database)
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Thêm hoặc cập nhật một sách - áp dụng sau khi transaction hiện tại commit
+     */
+    public void upsertAfterCommit(Document document) {
+        AfterCommit.run(() -> upsert(document));
+    }
+
+    /**
+     * Xóa một sách khỏi chỉ mục - áp dụng sau khi transaction hiện tại commit
+     */
+    public void removeAfterCommit(Long bookId) {
+        AfterCommit.run(() -> remove(bookId));
+    }
+
+    public void upsert(Document document) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(document.id());
+            addInternal(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long bookId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Đổi tên category: đánh chỉ mục lại các sách thuộc category đó
+     */
+    public void renameCategoryAfterCommit(Long categoryId, String categoryName) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                BitSet inCategory = categoryBits.getOrDefault(categoryId, new BitSet());
+                List<Document> affected = inCategory.stream()
+                        .mapToObj(ordinal -> slots.get(ordinal).document())
+                        .toList();
+                for (Document doc : affected) {
+                    removeInternal(doc.id());
+                    addInternal(new Document(doc.id(), doc.title(), doc.author(),
+                            doc.categoryId(), categoryName, doc.price()));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Tìm kiếm, trả về các sách khớp mọi từ của truy vấn và thỏa filter,
+     * sắp xếp theo điểm BM25 giảm dần (cùng điểm thì theo id tăng dần)
+     */
+    public List<Hit> search(String query, Predicate<Document> filter) {
+        lock.readLock().lock();
+        try {
+            Map<Integer, Double> scores = match(query);
+            if (scores == null || scores.isEmpty()) {
+                return List.of();
+            }
+            List<Hit> hits = new ArrayList<>(scores.size());
+            scores.forEach((ordinal, score) -> {
+                Document doc = slots.get(ordinal).document();
+                if (filter == null || filter.test(doc)) {
+                    hits.add(new Hit(doc, score));
+                }
+            });
+            hits.sort(HIT_ORDER);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tìm kiếm kèm đếm facet trong một lần duyệt tập khớp keyword
+     * - query rỗng: khớp toàn bộ sách (điểm 0, sắp theo id)
+     * - Số theo category bỏ qua bộ lọc category (chỉ áp dụng khoảng giá) và ngược lại,
+     *   để người dùng thấy số lượng khi đổi lựa chọn
+     */
+    public FacetedResult searchWithFacets(String query, Long categoryId, Double minPrice, Double maxPrice,
+                                          List<SearchFacetsVm.PriceBucket> buckets) {
+        lock.readLock().lock();
+        try {
+            Map<Integer, Double> scores = null;
+            BitSet matching;
+            if (query == null || query.isBlank()) {
+                matching = (BitSet) live.clone();
+            } else {
+                scores = match(query);
+                matching = new BitSet();
+                if (scores != null) {
+                    scores.keySet().forEach(matching::set);
+                }
+            }
+            BitSet categoryFilter = categoryId != null
+                    ? categoryBits.getOrDefault(categoryId, new BitSet())
+                    : null;
+
+            Map<Long, Long> categoryCounts = new HashMap<>();
+            long[] bucketCounts = new long[buckets.size()];
+            List<Hit> hits = new ArrayList<>();
+            for (int ordinal = matching.nextSetBit(0); ordinal >= 0; ordinal = matching.nextSetBit(ordinal + 1)) {
+                Document doc = slots.get(ordinal).document();
+                boolean categoryOk = categoryFilter == null || categoryFilter.get(ordinal);
+                boolean priceOk = inRange(doc.price(), minPrice, maxPrice);
+                if (priceOk && doc.categoryId() != null) {
+                    categoryCounts.merge(doc.categoryId(), 1L, Long::sum);
+                }
+                if (categoryOk) {
+                    for (int b = 0; b < bucketCounts.length; b++) {
+                        SearchFacetsVm.PriceBucket bucket = buckets.get(b);
+                        if (inRange(doc.price(), bucket.min(), bucket.max())) {
+                            bucketCounts[b]++;
+                            break;
+                        }
+                    }
+                }
+                if (categoryOk && priceOk) {
+                    hits.add(new Hit(doc, scores != null ? scores.get(ordinal) : 0.0));
+                }
+            }
+            hits.sort(HIT_ORDER);
+
+            List<SearchFacetsVm.PriceBucket> bucketResult = new ArrayList<>(buckets.size());
+            for (int b = 0; b < bucketCounts.length; b++) {
+                SearchFacetsVm.PriceBucket bucket = buckets.get(b);
+                bucketResult.add(new SearchFacetsVm.PriceBucket(bucket.min(), bucket.max(), bucketCounts[b]));
+            }
+            return new FacetedResult(hits, SearchFacetsVm.builder()
+                    .categoryCounts(categoryCounts)
+                    .priceBuckets(bucketResult)
+                    .build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean inRange(Double price, Double min, Double max) {
+        if (min != null && (price == null || price < min)) {
+            return false;
+        }
+        return max == null || (price != null && price <= max);
+    }
+
+    // Điểm BM25 theo ordinal của các sách khớp mọi từ; null nếu truy vấn không có từ nào
+    private Map<Integer, Double> match(String query) {
+        List<String> terms = TextNormalizer.tokenize(query);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        int n = ordinals.size();
+        double avgLength = n == 0 ? 1.0 : Math.max(1.0, (double) totalLength / n);
+        Map<Integer, Double> scores = null;
+        for (int i = 0; i < terms.size(); i++) {
+            boolean prefix = i == terms.size() - 1;
+            Map<Integer, Double> termScores = scoreTerm(terms.get(i), prefix, n, avgLength);
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                // AND: chỉ giữ các sách khớp cả từ này
+                scores.keySet().retainAll(termScores.keySet());
+                scores.replaceAll((ordinal, score) -> score + termScores.get(ordinal));
+            }
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+        return scores;
+    }
+
+    // Điểm BM25 của một từ; với tiền tố lấy điểm cao nhất trong các từ mở rộng
+    private Map<Integer, Double> scoreTerm(String term, boolean prefix, int n, double avgLength) {
+        Map<Integer, Double> result = new HashMap<>();
+        NavigableMap<String, Map<Integer, Integer>> matches = prefix
+                ? postings.subMap(term, true, term + Character.MAX_VALUE, false)
+                : exact(term);
+        for (Map<Integer, Integer> posting : matches.values()) {
+            int df = posting.size();
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            for (Map.Entry<Integer, Integer> entry : posting.entrySet()) {
+                int tf = entry.getValue();
+                int length = slots.get(entry.getKey()).length();
+                double score = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avgLength));
+                result.merge(entry.getKey(), score, Math::max);
+            }
+        }
+        return result;
+    }
+
+    private NavigableMap<String, Map<Integer, Integer>> exact(String term) {
+        return postings.containsKey(term)
+                ? postings.subMap(term, true, term, true)
+                : new TreeMap<>();
+    }
+
+    private void addInternal(Document document) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = addTokens(frequencies, document.title(), TITLE_WEIGHT)
+                + addTokens(frequencies, document.author(), AUTHOR_WEIGHT)
+                + addTokens(frequencies, document.categoryName(), CATEGORY_WEIGHT);
+        IndexedDocument indexed = new IndexedDocument(document, frequencies, length);
+        int ordinal;
+        if (freeSlots.isEmpty()) {
+            ordinal = slots.size();
+            slots.add(indexed);
+        } else {
+            ordinal = freeSlots.pop();
+            slots.set(ordinal, indexed);
+        }
+        ordinals.put(document.id(), ordinal);
+        live.set(ordinal);
+        if (document.categoryId() != null) {
+            categoryBits.computeIfAbsent(document.categoryId(), id -> new BitSet()).set(ordinal);
+        }
+        frequencies.forEach((term, tf) ->
+                postings.computeIfAbsent(term, t -> new HashMap<>()).put(ordinal, tf));
+        totalLength += length;
+    }
+
+    private void removeInternal(Long bookId) {
+        Integer ordinal = ordinals.remove(bookId);
+        if (ordinal == null) {
+            return;
+        }
+        IndexedDocument existing = slots.set(ordinal, null);
+        freeSlots.push(ordinal);
+        live.clear(ordinal);
+        Long categoryId = existing.document().categoryId();
+        if (categoryId != null) {
+            BitSet bits = categoryBits.get(categoryId);
+            if (bits != null) {
+                bits.clear(ordinal);
+                if (bits.isEmpty()) {
+                    categoryBits.remove(categoryId);
+                }
+            }
+        }
+        existing.termFrequencies().keySet().forEach(term -> {
+            Map<Integer, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(ordinal);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        });
+        totalLength -= existing.length();
+    }
+
+    private static int addTokens(Map<String, Integer> frequencies, String text, int weight) {
+        List<String> tokens = TextNormalizer.tokenize(text);
+        tokens.forEach(token -> frequencies.merge(token, weight, Integer::sum));
+        return tokens.size() * weight;
+    }
+}
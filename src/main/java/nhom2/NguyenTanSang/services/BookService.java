@@ -1,42 +1,157 @@
 package nhom2.NguyenTanSang.services;
+import nhom2.NguyenTanSang.config.RetryOnOptimisticLock;
 import nhom2.NguyenTanSang.dtos.SearchDTO;
 import nhom2.NguyenTanSang.entities.Book;
+import nhom2.NguyenTanSang.entities.Category;
+import nhom2.NguyenTanSang.repositories.BookSpecifications;
 import nhom2.NguyenTanSang.repositories.IBookRepository;
+import nhom2.NguyenTanSang.repositories.IBookSalesDailyRollupRepository;
+import nhom2.NguyenTanSang.repositories.ICategoryRepository;
+import nhom2.NguyenTanSang.utils.KeysetCursor;
+import nhom2.NguyenTanSang.utils.TextNormalizer;
+import nhom2.NguyenTanSang.viewmodels.CursorPageVm;
+import nhom2.NguyenTanSang.viewmodels.FacetedPageVm;
+import nhom2.NguyenTanSang.viewmodels.InventorySummaryVm;
+import nhom2.NguyenTanSang.viewmodels.SearchFacetsVm;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
-@Transactional(isolation = Isolation.SERIALIZABLE,
+@Transactional(isolation = Isolation.READ_COMMITTED,
         rollbackFor = {Exception.class, Throwable.class})
 public class BookService {
+    private static final Set<String> KEYSET_SORT_FIELDS = Set.of("id", "title", "author", "price", "averageRating");
+    private static final long COUNT_CACHE_TTL_MILLIS = 30_000;
+    // Các khoảng giá (VND) cho facet giá, hai đầu đều tính (khớp minPrice/maxPrice của bộ lọc)
+    private static final List<SearchFacetsVm.PriceBucket> PRICE_BUCKETS = List.of(
+            new SearchFacetsVm.PriceBucket(null, 49_999.0, 0),
+            new SearchFacetsVm.PriceBucket(50_000.0, 99_999.0, 0),
+            new SearchFacetsVm.PriceBucket(100_000.0, 199_999.0, 0),
+            new SearchFacetsVm.PriceBucket(200_000.0, 499_999.0, 0),
+            new SearchFacetsVm.PriceBucket(500_000.0, null, 0));
+    
     private final IBookRepository bookRepository;
+    private final ICategoryRepository categoryRepository;
+    private final BookSearchIndex bookSearchIndex;
+    private final BookSuggestionIndex bookSuggestionIndex;
+    private final CatalogPriceSnapshot catalogPriceSnapshot;
+    private final IBookSalesDailyRollupRepository bookSalesRollupRepository;
+    private volatile long cachedBookCount = -1;
+    private volatile long cachedBookCountAt;
+    @Transactional(readOnly = true)
     public List<Book> getAllBooks(Integer pageNo,
                                   Integer pageSize,
                                   String sortBy) {
 
         return bookRepository.findAll(PageRequest.of(pageNo, pageSize, Sort.by(sortBy))).getContent();
     }
+    /**
+     * Phân trang keyset (cursor): chi phí trang thứ N bằng trang đầu tiên
+     * cursor = null để lấy trang đầu; sortBy không hợp lệ được thay bằng "id"
+     * Sắp theo một thuộc tính khác id thì bỏ qua sách có giá trị null (ví dụ sách chưa có giá):
+     * keyset không so sánh được với null nên chúng không có vị trí ổn định giữa các trang
+     */
+    @Transactional(readOnly = true)
+    public CursorPageVm<Book> getBooksByCursor(String cursor, int pageSize,
+                                               String sortBy, boolean descending) {
+        ScrollPosition position = ScrollPosition.keyset();
+        if (cursor != null && !cursor.isBlank()) {
+            KeysetCursor decoded = KeysetCursor.decode(cursor);
+            // Cursor mang theo thứ tự sắp xếp của trang trước
+            sortBy = decoded.sortBy();
+            descending = decoded.descending();
+            position = ScrollPosition.forward(keysetOf(decoded));
+        }
+        if (!KEYSET_SORT_FIELDS.contains(sortBy)) {
+            sortBy = "id";
+        }
+        Sort.Direction direction = descending ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Sort sort = "id".equals(sortBy)
+                ? Sort.by(direction, "id")
+                : Sort.by(direction, sortBy, "id");
+        
+        ScrollPosition start = position;
+        String sortField = sortBy;
+        Specification<Book> sortable = "id".equals(sortField)
+                ? (root, query, cb) -> cb.conjunction()
+                : (root, query, cb) -> cb.isNotNull(root.get(sortField));
+        Window<Book> window = bookRepository.findBy(sortable,
+                q -> q.sortBy(sort).limit(pageSize).scroll(start));
+        
+        List<Book> books = window.getContent();
+        String nextCursor = null;
+        if (window.hasNext() && !books.isEmpty()) {
+            Book last = books.get(books.size() - 1);
+            nextCursor = new KeysetCursor(sortBy, descending, last.getId(), sortValueOf(last, sortBy)).encode();
+        }
+        return CursorPageVm.<Book>builder()
+                .items(books)
+                .nextCursor(nextCursor)
+                .hasNext(nextCursor != null)
+                .build();
+    }
+    
+    /**
+     * Tổng số sách, cache ngắn hạn để không COUNT(*) mỗi lần xem danh sách
+     */
+    @Transactional(readOnly = true)
+    public long getTotalBookCount() {
+        long now = System.currentTimeMillis();
+        if (cachedBookCount < 0 || now - cachedBookCountAt > COUNT_CACHE_TTL_MILLIS) {
+            cachedBookCount = bookRepository.count();
+            cachedBookCountAt = now;
+        }
+        return cachedBookCount;
+    }
+    
+    @Transactional(readOnly = true)
     public Optional<Book> getBookById(Long id) {
         return bookRepository.findById(id);
     }
     public void addBook(Book book) {
         bookRepository.save(book);
+        cachedBookCount = -1;
+        reindexAfterCommit(book);
     }
 
+    /**
+     * Cập nhật sách từ form admin
+     * Không retry khi xung đột: form chứa tồn kho tuyệt đối, ghi lại sau khi checkout đã trừ kho
+     * sẽ xóa mất phần đã trừ. So version của form với dòng hiện tại, lệch thì báo admin tải lại form.
+     */
     public void updateBook(@NotNull Book book) {
         Book existingBook = bookRepository.findById(book.getId())
                 .orElse(null);
-        Objects.requireNonNull(existingBook).setTitle(book.getTitle());
+        Objects.requireNonNull(existingBook);
+        if (book.getVersion() != null && !book.getVersion().equals(existingBook.getVersion())) {
+            throw new IllegalStateException(
+                    "Sách đã được cập nhật (tồn kho hoặc thông tin) sau khi mở form, vui lòng tải lại trang và sửa lại");
+        }
+        existingBook.setTitle(book.getTitle());
         existingBook.setAuthor(book.getAuthor());
         existingBook.setPrice(book.getPrice());
         existingBook.setCategory(book.getCategory());
@@ -44,19 +159,46 @@ public class BookService {
         existingBook.setIsAvailable(book.getIsAvailable());
         existingBook.setImageUrl(book.getImageUrl()); // FIX: Cập nhật imageUrl
         bookRepository.save(existingBook);
+        reindexAfterCommit(existingBook);
     }
     public void deleteBookById(Long id) {
         bookRepository.deleteById(id);
+        cachedBookCount = -1;
+        bookSearchIndex.removeAfterCommit(id);
+        bookSuggestionIndex.removeAfterCommit(id);
+        catalogPriceSnapshot.removeAfterCommit(id);
     }
 
-    public List<Book> searchBook(String keyword) {
-        return bookRepository.searchBook(keyword);
+    /**
+     * Tìm sách theo keyword (title/author/category), xếp hạng theo độ liên quan
+     */
+    @Transactional(readOnly = true)
+    public List<Book> searchBook(String keyword, int limit) {
+        if (!bookSearchIndex.isReady()) {
+            return bookRepository.searchBook(keyword).stream().limit(limit).toList();
+        }
+        List<Long> ids = bookSearchIndex.search(keyword, null).stream()
+                .limit(limit)
+                .map(hit -> hit.document().id())
+                .toList();
+        return loadInOrder(ids);
     }
     
     /**
      * Tìm kiếm và lọc sách với nhiều tiêu chí
      */
+    @Transactional(readOnly = true)
     public Page<Book> searchWithFilters(SearchDTO searchDTO, int page, int size) {
+        return searchWithFacets(searchDTO, page, size).page();
+    }
+    
+    /**
+     * Tìm kiếm và lọc sách, kèm số sách theo category và theo khoảng giá
+     * - Tập sách khớp keyword được duyệt một lần trong chỉ mục để vừa lọc vừa đếm facet
+     * - Chỉ mục chưa sẵn sàng: lọc bằng database, không có facet
+     */
+    @Transactional(readOnly = true)
+    public FacetedPageVm<Book> searchWithFacets(SearchDTO searchDTO, int page, int size) {
         // Xử lý sortBy mặc định
         String sortBy = searchDTO.getSortBy();
         if (sortBy == null || sortBy.isEmpty()) {
@@ -79,6 +221,28 @@ public class BookService {
         
         Pageable pageable = PageRequest.of(page, size, sort);
         
+        if (!bookSearchIndex.isReady()) {
+            return new FacetedPageVm<>(findByFilters(searchDTO, pageable), SearchFacetsVm.EMPTY);
+        }
+        
+        // Dùng chỉ mục trong bộ nhớ thay cho LIKE '%kw%' quét toàn bảng
+        String keyword = searchDTO.getKeyword();
+        BookSearchIndex.FacetedResult result = bookSearchIndex.searchWithFacets(
+                keyword,
+                searchDTO.getCategoryId(),
+                searchDTO.getMinPrice(),
+                searchDTO.getMaxPrice(),
+                PRICE_BUCKETS);
+        
+        // Không có keyword và sắp theo rating: để database phân trang thay vì IN (toàn bộ id)
+        boolean noKeyword = keyword == null || keyword.isBlank();
+        Page<Book> booksPage = noKeyword && "averageRating".equals(sortBy)
+                ? findByFilters(searchDTO, pageable)
+                : pageHits(result.hits(), pageable);
+        return new FacetedPageVm<>(booksPage, result.facets());
+    }
+    
+    private Page<Book> findByFilters(SearchDTO searchDTO, Pageable pageable) {
         return bookRepository.findByFilters(
             searchDTO.getKeyword(),
             searchDTO.getCategoryId(),
@@ -88,11 +252,128 @@ public class BookService {
         );
     }
     
+    /**
+     * Dựng chỉ mục tìm kiếm, trie gợi ý và ảnh chụp giá từ toàn bộ sách khi ứng dụng khởi động
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void buildSearchIndex() {
+        List<Book> books = bookRepository.findAllWithCategory();
+        List<BookSearchIndex.Document> documents = books.stream()
+                .map(this::toSearchDocument)
+                .toList();
+        Map<Long, Long> sales = bookSalesRollupRepository.sumUnitsSoldGroupByBook().stream()
+                .filter(row -> row[1] != null)
+                .collect(Collectors.toMap(row -> (Long) row[0], row -> ((Number) row[1]).longValue()));
+        bookSearchIndex.rebuild(documents);
+        bookSuggestionIndex.rebuild(documents, sales);
+        catalogPriceSnapshot.rebuild(books.stream().map(CatalogPriceSnapshot.Entry::of).toList());
+    }
+    
+    private static Map<String, Object> keysetOf(KeysetCursor cursor) {
+        Map<String, Object> keys = new LinkedHashMap<>();
+        try {
+            switch (cursor.sortBy()) {
+                case "title", "author" -> keys.put(cursor.sortBy(), requireValue(cursor));
+                case "price", "averageRating" -> keys.put(cursor.sortBy(), Double.valueOf(requireValue(cursor)));
+                case "id" -> { }
+                default -> throw new IllegalArgumentException("Invalid cursor");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+        keys.put("id", cursor.id());
+        return keys;
+    }
+    
+    // Trang sắp theo thuộc tính khác id đã loại giá trị null nên cursor luôn phải có giá trị khóa
+    private static String requireValue(KeysetCursor cursor) {
+        if (cursor.sortValue() == null || cursor.sortValue().isEmpty()) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return cursor.sortValue();
+    }
+    
+    private static String sortValueOf(Book book, String sortBy) {
+        Object value = switch (sortBy) {
+            case "title" -> book.getTitle();
+            case "author" -> book.getAuthor();
+            case "price" -> book.getPrice();
+            case "averageRating" -> book.getAverageRating();
+            default -> null;
+        };
+        return value != null ? value.toString() : null;
+    }
+    
+    private void reindexAfterCommit(Book book) {
+        BookSearchIndex.Document document = toSearchDocument(book);
+        bookSearchIndex.upsertAfterCommit(document);
+        bookSuggestionIndex.upsertAfterCommit(document);
+        catalogPriceSnapshot.upsertAfterCommit(CatalogPriceSnapshot.Entry.of(book));
+    }
+    
+    private Page<Book> pageHits(List<BookSearchIndex.Hit> hits, Pageable pageable) {
+        Sort.Order order = pageable.getSort().iterator().next();
+        
+        // Mặc định ("id") giữ thứ tự theo độ liên quan; averageRating không có trong chỉ mục
+        if ("averageRating".equals(order.getProperty())) {
+            List<Long> ids = hits.stream().map(hit -> hit.document().id()).toList();
+            return ids.isEmpty()
+                    ? Page.empty(pageable)
+                    : bookRepository.findByIdIn(ids, pageable);
+        }
+        List<BookSearchIndex.Document> documents = new ArrayList<>(hits.stream()
+                .map(BookSearchIndex.Hit::document)
+                .toList());
+        Comparator<BookSearchIndex.Document> comparator = switch (order.getProperty()) {
+            case "title" -> Comparator.comparing(doc -> TextNormalizer.fold(doc.title()));
+            case "author" -> Comparator.comparing(doc -> TextNormalizer.fold(doc.author()));
+            case "price" -> Comparator.comparing(BookSearchIndex.Document::price,
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            default -> null;
+        };
+        if (comparator != null) {
+            documents.sort((order.isDescending() ? comparator.reversed() : comparator)
+                    .thenComparing(BookSearchIndex.Document::id));
+        }
+        
+        int from = (int) Math.min(pageable.getOffset(), documents.size());
+        int to = Math.min(from + pageable.getPageSize(), documents.size());
+        List<Long> pageIds = documents.subList(from, to).stream()
+                .map(BookSearchIndex.Document::id)
+                .toList();
+        return new PageImpl<>(loadInOrder(pageIds), pageable, documents.size());
+    }
+    
+    // Nạp sách theo danh sách id (kèm category) và giữ đúng thứ tự của danh sách
+    private List<Book> loadInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Book> byId = bookRepository.findByIdIn(ids).stream()
+                .collect(Collectors.toMap(Book::getId, Function.identity()));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+    }
+    
+    private BookSearchIndex.Document toSearchDocument(Book book) {
+        Category category = book.getCategory();
+        String categoryName = null;
+        if (category != null) {
+            // Sách gửi từ form chỉ có category.id
+            categoryName = category.getName() != null
+                    ? category.getName()
+                    : categoryRepository.findById(category.getId()).map(Category::getName).orElse(null);
+        }
+        return new BookSearchIndex.Document(book.getId(), book.getTitle(), book.getAuthor(),
+                category != null ? category.getId() : null, categoryName, book.getPrice());
+    }
+    
     // ==================== INVENTORY MANAGEMENT ====================
     
     /**
      * Kiểm tra xem sách có đủ số lượng trong kho không
      */
+    @Transactional(readOnly = true)
     public boolean checkStock(Long bookId, int quantity) {
         Book book = bookRepository.findById(bookId)
             .orElseThrow(() -> new IllegalArgumentException("Book not found"));
@@ -102,6 +383,7 @@ public class BookService {
     /**
      * Giảm số lượng sách trong kho (khi bán hàng)
      */
+    @RetryOnOptimisticLock
     public void reduceStock(Long bookId, int quantity) {
         Book book = bookRepository.findById(bookId)
             .orElseThrow(() -> new IllegalArgumentException("Book not found"));
@@ -109,9 +391,39 @@ public class BookService {
         bookRepository.save(book);
     }
     
+    /**
+     * Giữ hàng cho nhiều sách cùng lúc khi checkout
+     * Mỗi sách là một UPDATE có điều kiện (stock >= quantity), gửi chung một batch.
+     * Duyệt theo id tăng dần để các giao dịch đồng thời luôn khóa dòng theo cùng thứ tự.
+     *
+     * @param quantities bookId -> số lượng cần trừ
+     * @return danh sách id sách không đủ hàng; nếu khác rỗng, caller phải ném exception để rollback
+     */
+    public List<Long> reserveStock(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return List.of();
+        }
+        if (quantities.values().stream().anyMatch(quantity -> quantity == null || quantity <= 0)) {
+            throw new IllegalArgumentException("Số lượng giảm phải lớn hơn 0");
+        }
+
+        Map<Long, Integer> orderedQuantities = new TreeMap<>(quantities);
+        int[] updatedRows = bookRepository.reserveStock(orderedQuantities);
+
+        List<Long> outOfStockBookIds = new ArrayList<>();
+        int index = 0;
+        for (Long bookId : orderedQuantities.keySet()) {
+            if (updatedRows[index++] == 0) {
+                outOfStockBookIds.add(bookId);
+            }
+        }
+        return outOfStockBookIds;
+    }
+    
     /**
      * Tăng số lượng sách trong kho (khi nhập hàng)
      */
+    @RetryOnOptimisticLock
     public void increaseStock(Long bookId, int quantity) {
         Book book = bookRepository.findById(bookId)
             .orElseThrow(() -> new IllegalArgumentException("Book not found"));
@@ -120,16 +432,38 @@ public class BookService {
     }
     
     /**
-     * Lấy danh sách sách sắp hết hàng
+     * Lấy danh sách sách sắp hết hàng (0 < stock <= threshold), tồn kho thấp nhất trước
      */
-    public List<Book> getLowStockBooks(int threshold) {
-        return bookRepository.findByStockLessThanAndIsAvailableTrue(threshold);
+    @Transactional(readOnly = true)
+    public List<Book> getLowStockBooks(int threshold, int limit) {
+        return bookRepository.findByStockBetween(1, threshold,
+                PageRequest.of(0, limit, Sort.by("stock", "id")));
     }
     
     /**
      * Lấy danh sách sách đã hết hàng
      */
-    public List<Book> getOutOfStockBooks() {
-        return bookRepository.findByStockEquals(0);
+    @Transactional(readOnly = true)
+    public List<Book> getOutOfStockBooks(int limit) {
+        return bookRepository.findByStock(0, PageRequest.of(0, limit, Sort.by("id")));
+    }
+    
+    /**
+     * Tìm sách cho trang quản lý kho: lọc, sắp xếp và phân trang trong database
+     */
+    @Transactional(readOnly = true)
+    public Page<Book> searchInventory(String keyword, Long categoryId, String stockStatus,
+                                      int lowStockThreshold, Pageable pageable) {
+        return bookRepository.findAll(
+                BookSpecifications.inventoryFilter(keyword, categoryId, stockStatus, lowStockThreshold),
+                pageable);
+    }
+    
+    /**
+     * Đếm tổng số sách, hết hàng, sắp hết hàng bằng một truy vấn
+     */
+    @Transactional(readOnly = true)
+    public InventorySummaryVm getInventorySummary(int lowStockThreshold) {
+        return bookRepository.getInventorySummary(lowStockThreshold);
     }
-}
\ No newline at end of file
+}
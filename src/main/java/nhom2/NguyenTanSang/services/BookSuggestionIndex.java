@@ -0,0 +1,332 @@
+package nhom2.NguyenTanSang.services;
+
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import nhom2.NguyenTanSang.utils.TextNormalizer;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Gợi ý tự động hoàn thành (autocomplete) cho ô tìm kiếm
+ * - Trie gọn: mỗi node giữ mảng ký tự con đã sắp xếp thay vì HashMap
+ * - Khóa là chuỗi đã bỏ dấu, bắt đầu từ mỗi từ của title/author ("trinh" khớp "Lập trình Java")
+ * - Trọng số theo số lượng đã bán; mỗi node lưu trọng số lớn nhất của cây con
+ *   để lấy top-N theo best-first mà không duyệt hết cây
+ * - Không truy cập database khi gợi ý
+ */
+@Service
+@Slf4j
+public class BookSuggestionIndex {
+    public static final String TYPE_TITLE = "title";
+    public static final String TYPE_AUTHOR = "author";
+
+    private static final int MAX_KEY_WORDS = 6;
+    private static final int MAX_KEY_LENGTH = 64;
+
+    public record Suggestion(String text, String type, Long bookId, long weight) {
+    }
+
+    private static final class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private List<Suggestion> entries;
+        private long maxWeight = -1;
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        private Node getOrCreateChild(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insertAt = -i - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newLabels[insertAt] = c;
+            newChildren[insertAt] = new Node();
+            System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insertAt];
+        }
+
+        private void removeChild(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            if (i < 0) {
+                return;
+            }
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(labels, i + 1, newLabels, i, labels.length - i - 1);
+            System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        private void recomputeMaxWeight() {
+            long max = -1;
+            if (entries != null) {
+                for (Suggestion entry : entries) {
+                    max = Math.max(max, entry.weight());
+                }
+            }
+            for (Node child : children) {
+                max = Math.max(max, child.maxWeight);
+            }
+            maxWeight = max;
+        }
+
+        private boolean isEmpty() {
+            return children.length == 0 && (entries == null || entries.isEmpty());
+        }
+    }
+
+    private record BookEntry(String title, String author, String authorKey) {
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root = new Node();
+    private final Map<Long, BookEntry> books = new HashMap<>();
+    private final Map<Long, Long> salesByBook = new HashMap<>();
+    private final Map<Long, Suggestion> titleSuggestions = new HashMap<>();
+    private final Map<String, Suggestion> authorSuggestions = new HashMap<>();
+    private final Map<String, Set<Long>> booksByAuthor = new HashMap<>();
+
+    /**
+     * Dựng lại toàn bộ trie
+     */
+    public void rebuild(Collection<BookSearchIndex.Document> documents, Map<Long, Long> sales) {
+        lock.writeLock().lock();
+        try {
+            root = new Node();
+            books.clear();
+            salesByBook.clear();
+            titleSuggestions.clear();
+            authorSuggestions.clear();
+            booksByAuthor.clear();
+            salesByBook.putAll(sales);
+            documents.forEach(doc -> addBookInternal(doc.id(), doc.title(), doc.author()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Book suggestion index built: {} titles, {} authors", titleSuggestions.size(), authorSuggestions.size());
+    }
+
+    public void upsertAfterCommit(BookSearchIndex.Document document) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                removeBookInternal(document.id());
+                addBookInternal(document.id(), document.title(), document.author());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeAfterCommit(Long bookId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                removeBookInternal(bookId);
+                salesByBook.remove(bookId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Cộng dồn số lượng bán (âm khi đơn hàng rời trạng thái COMPLETED) sau khi commit
+     */
+    public void addSalesAfterCommit(Long bookId, long unitsDelta) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                salesByBook.merge(bookId, unitsDelta, (a, b) -> Math.max(0, a + b));
+                BookEntry entry = books.get(bookId);
+                if (entry != null) {
+                    removeBookInternal(bookId);
+                    addBookInternal(bookId, entry.title(), entry.author());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Top-N gợi ý cho tiền tố, trọng số cao trước
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String key = normalizeKey(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return List.of();
+            }
+            // Best-first: phần tử là Node (ưu tiên theo maxWeight) hoặc Suggestion (theo weight)
+            PriorityQueue<Object> queue = new PriorityQueue<>(
+                    Comparator.comparingLong(BookSuggestionIndex::priority).reversed());
+            queue.add(node);
+            Set<Suggestion> result = new LinkedHashSet<>();
+            while (!queue.isEmpty() && result.size() < limit) {
+                Object next = queue.poll();
+                if (next instanceof Suggestion suggestion) {
+                    result.add(suggestion);
+                } else {
+                    Node current = (Node) next;
+                    if (current.entries != null) {
+                        queue.addAll(current.entries);
+                    }
+                    queue.addAll(Arrays.asList(current.children));
+                }
+            }
+            return new ArrayList<>(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long priority(Object item) {
+        return item instanceof Suggestion suggestion ? suggestion.weight() : ((Node) item).maxWeight;
+    }
+
+    private void addBookInternal(Long bookId, String title, String author) {
+        String authorKey = normalizeKey(author);
+        books.put(bookId, new BookEntry(title, author, authorKey));
+
+        Suggestion titleSuggestion = new Suggestion(title, TYPE_TITLE, bookId, salesByBook.getOrDefault(bookId, 0L));
+        titleSuggestions.put(bookId, titleSuggestion);
+        insertAll(title, titleSuggestion);
+
+        if (!authorKey.isEmpty()) {
+            booksByAuthor.computeIfAbsent(authorKey, k -> new LinkedHashSet<>()).add(bookId);
+            refreshAuthor(authorKey, author);
+        }
+    }
+
+    private void removeBookInternal(Long bookId) {
+        BookEntry entry = books.remove(bookId);
+        if (entry == null) {
+            return;
+        }
+        Suggestion titleSuggestion = titleSuggestions.remove(bookId);
+        if (titleSuggestion != null) {
+            removeAll(entry.title(), titleSuggestion);
+        }
+        Set<Long> authorBooks = booksByAuthor.get(entry.authorKey());
+        if (authorBooks != null) {
+            authorBooks.remove(bookId);
+            if (authorBooks.isEmpty()) {
+                booksByAuthor.remove(entry.authorKey());
+            }
+            // Tên hiển thị lấy theo một sách còn lại của tác giả
+            String display = authorBooks.isEmpty() ? entry.author() : books.get(authorBooks.iterator().next()).author();
+            refreshAuthor(entry.authorKey(), display);
+        }
+    }
+
+    // Gợi ý tác giả có trọng số = tổng số lượng bán các sách của tác giả
+    private void refreshAuthor(String authorKey, String display) {
+        Suggestion old = authorSuggestions.remove(authorKey);
+        if (old != null) {
+            removeAll(old.text(), old);
+        }
+        Set<Long> authorBooks = booksByAuthor.get(authorKey);
+        if (authorBooks == null || authorBooks.isEmpty()) {
+            return;
+        }
+        long weight = authorBooks.stream().mapToLong(id -> salesByBook.getOrDefault(id, 0L)).sum();
+        Suggestion suggestion = new Suggestion(display, TYPE_AUTHOR, null, weight);
+        authorSuggestions.put(authorKey, suggestion);
+        insertAll(display, suggestion);
+    }
+
+    private void insertAll(String text, Suggestion suggestion) {
+        for (String key : keysOf(text)) {
+            List<Node> path = new ArrayList<>(key.length() + 1);
+            Node node = root;
+            path.add(node);
+            for (int i = 0; i < key.length(); i++) {
+                node = node.getOrCreateChild(key.charAt(i));
+                path.add(node);
+            }
+            if (node.entries == null) {
+                node.entries = new ArrayList<>(1);
+            }
+            node.entries.add(suggestion);
+            for (Node onPath : path) {
+                onPath.maxWeight = Math.max(onPath.maxWeight, suggestion.weight());
+            }
+        }
+    }
+
+    private void removeAll(String text, Suggestion suggestion) {
+        for (String key : keysOf(text)) {
+            List<Node> path = new ArrayList<>(key.length() + 1);
+            Node node = root;
+            path.add(node);
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+                path.add(node);
+            }
+            if (node == null || node.entries == null) {
+                continue;
+            }
+            node.entries.remove(suggestion);
+            // Cập nhật maxWeight từ dưới lên, cắt bỏ các node rỗng
+            for (int i = path.size() - 1; i >= 0; i--) {
+                Node current = path.get(i);
+                if (i > 0 && current.isEmpty()) {
+                    path.get(i - 1).removeChild(key.charAt(i - 1));
+                } else {
+                    current.recomputeMaxWeight();
+                }
+            }
+        }
+    }
+
+    // Các khóa bắt đầu từ mỗi từ: "lap trinh java", "trinh java", "java"
+    private static Set<String> keysOf(String text) {
+        List<String> words = TextNormalizer.tokenize(text);
+        Set<String> keys = new LinkedHashSet<>();
+        for (int i = 0; i < words.size() && i < MAX_KEY_WORDS; i++) {
+            String key = String.join(" ", words.subList(i, words.size()));
+            keys.add(key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key);
+        }
+        return keys;
+    }
+
+    private static String normalizeKey(String text) {
+        String key = String.join(" ", TextNormalizer.tokenize(text));
+        return key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key;
+    }
+}
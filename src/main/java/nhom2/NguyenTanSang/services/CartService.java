@@ -1,6 +1,7 @@
 package nhom2.NguyenTanSang.services;
 import nhom2.NguyenTanSang.daos.Cart;
 import nhom2.NguyenTanSang.daos.Item;
+import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.entities.Invoice;
 import nhom2.NguyenTanSang.entities.ItemInvoice;
 import nhom2.NguyenTanSang.repositories.IBookRepository;
@@ -12,26 +13,90 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
-@Transactional(isolation = Isolation.SERIALIZABLE,
-        rollbackFor = {Exception.class, Throwable.class})
 public class CartService {
     private static final String CART_SESSION_KEY = "cart";
     private final IInvoiceRepository invoiceRepository;
     private final IItemInvoiceRepository itemInvoiceRepository;
     private final IBookRepository bookRepository;
     private final BookService bookService;
+    private final SalesRollupService salesRollupService;
+    private final CatalogPriceSnapshot catalogPriceSnapshot;
+    /**
+     * Lấy giỏ hàng trong session, đã định giá lại theo ảnh chụp giá hiện tại
+     */
     public Cart getCart(@NotNull HttpSession session) {
-        return Optional.ofNullable((Cart)
+        Cart cart = Optional.ofNullable((Cart)
                         session.getAttribute(CART_SESSION_KEY))
                 .orElseGet(() -> {
-                    Cart cart = new Cart();
-                    session.setAttribute(CART_SESSION_KEY, cart);
-                    return cart;
+                    Cart newCart = new Cart();
+                    session.setAttribute(CART_SESSION_KEY, newCart);
+                    return newCart;
                 });
+        if (reprice(cart)) {
+            session.setAttribute(CART_SESSION_KEY, cart);
+        }
+        return cart;
+    }
+    /**
+     * Thêm sách vào giỏ; tên, giá, ảnh lấy từ ảnh chụp giá (hoặc database), không tin tham số từ form
+     */
+    public void addToCart(@NotNull HttpSession session, Long bookId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Số lượng phải lớn hơn 0");
+        }
+        Cart cart = getCart(session);
+        CatalogPriceSnapshot.Entry entry = Optional.ofNullable(catalogPriceSnapshot.current().get(bookId))
+                .or(() -> bookRepository.findById(bookId).map(CatalogPriceSnapshot.Entry::of))
+                .orElseThrow(() -> new IllegalArgumentException("Book not found with id: " + bookId));
+        cart.addItems(new Item(entry.bookId(), entry.title(), entry.price(), quantity, entry.imageUrl()));
+        updateCart(session, cart);
+    }
+    /**
+     * Định giá lại giỏ hàng nếu ảnh chụp giá đã đổi version kể từ lần trước
+     * - Cùng version: không làm gì
+     * - Mỗi dòng tra ảnh chụp O(1); sách chưa có trong ảnh chụp được nạp từ database bằng một findAllById
+     * - Sách không còn tồn tại bị bỏ khỏi giỏ
+     *
+     * @return true nếu giỏ hàng được định giá lại
+     */
+    public boolean reprice(@NotNull Cart cart) {
+        CatalogPriceSnapshot.Snapshot snapshot = catalogPriceSnapshot.current();
+        if (cart.getPriceVersion() == snapshot.version()) {
+            return false;
+        }
+        List<Long> missingBookIds = new ArrayList<>();
+        for (Item item : cart.getCartItems()) {
+            CatalogPriceSnapshot.Entry entry = snapshot.get(item.getBookId());
+            if (entry != null) {
+                cart.updateCatalog(entry.bookId(), entry.price(), entry.title(), entry.imageUrl());
+            } else {
+                missingBookIds.add(item.getBookId());
+            }
+        }
+        if (!missingBookIds.isEmpty()) {
+            Map<Long, Book> books = bookRepository.findAllById(missingBookIds).stream()
+                    .collect(Collectors.toMap(Book::getId, Function.identity()));
+            for (Long bookId : missingBookIds) {
+                Book book = books.get(bookId);
+                if (book == null) {
+                    cart.removeItems(bookId);
+                } else {
+                    cart.updateCatalog(bookId, book.getPrice(), book.getTitle(), book.getImageUrl());
+                }
+            }
+        }
+        cart.setPriceVersion(snapshot.version());
+        return true;
     }
     public void updateCart(@NotNull HttpSession session, Cart cart) {
         session.setAttribute(CART_SESSION_KEY, cart);
@@ -40,69 +105,126 @@ public class CartService {
         session.removeAttribute(CART_SESSION_KEY);
     }
     public int getSumQuantity(@NotNull HttpSession session) {
-        return getCart(session).getCartItems().stream()
-                .mapToInt(Item::getQuantity)
-                .sum();
+        return getCart(session).getTotalQuantity();
     }
     public double getSumPrice(@NotNull HttpSession session) {
-        return getCart(session).getCartItems().stream()
-                .mapToDouble(item -> item.getPrice() *
-                        item.getQuantity())
+        return getCart(session).getTotalPrice();
+    }
+    /**
+     * Giữ hàng cho toàn bộ giỏ hàng bằng một batch UPDATE có điều kiện
+     * Ném IllegalStateException (rollback transaction) nếu có sách không đủ hàng
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
+    public void reserveStock(@NotNull Cart cart) {
+        Map<Long, Integer> quantities = cart.getCartItems().stream()
+                .collect(Collectors.toMap(Item::getBookId, Item::getQuantity, Integer::sum));
+        List<Long> outOfStockBookIds = bookService.reserveStock(quantities);
+        if (!outOfStockBookIds.isEmpty()) {
+            String bookName = cart.getCartItems().stream()
+                    .filter(item -> item.getBookId().equals(outOfStockBookIds.get(0)))
+                    .map(Item::getBookName)
+                    .findFirst()
+                    .orElse("#" + outOfStockBookIds.get(0));
+            throw new IllegalStateException("Sách '" + bookName + "' không đủ hàng trong kho");
+        }
+    }
+    /**
+     * Chốt giỏ hàng khi đặt hàng, số câu SQL không phụ thuộc số dòng trong giỏ:
+     * - Giữ hàng: một batch UPDATE có điều kiện, khóa dòng theo id tăng dần (reserveStock)
+     * - Nạp toàn bộ sách của giỏ bằng một findAllById; chạy sau khi giữ hàng nên thấy tồn kho/version mới
+     *   (reserveStock gỡ các Book đã nạp trước đó khỏi persistence context, ví dụ khi reprice() nạp sách
+     *   trong cùng request với open-in-view) và các dòng đã bị khóa bởi UPDATE ở trên,
+     *   không cần SELECT ... FOR UPDATE riêng
+     * - Sách chưa có giá thì không bán được: ném IllegalStateException (rollback cả phần giữ hàng)
+     *
+     * @return bookId -> Book, dùng để tính tiền và tạo ItemInvoice
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
+    public Map<Long, Book> reserveAndLoadBooks(@NotNull Cart cart) {
+        reserveStock(cart);
+        Set<Long> bookIds = cart.getCartItems().stream()
+                .map(Item::getBookId)
+                .collect(Collectors.toSet());
+        Map<Long, Book> books = bookRepository.findAllById(bookIds).stream()
+                .collect(Collectors.toMap(Book::getId, Function.identity()));
+        bookIds.stream()
+                .filter(bookId -> !books.containsKey(bookId))
+                .findFirst()
+                .ifPresent(bookId -> {
+                    throw new IllegalArgumentException("Book not found with id: " + bookId);
+                });
+        books.values().forEach(CartService::requirePrice);
+        return books;
+    }
+
+    /**
+     * Tổng tiền giỏ hàng theo giá hiện tại của sách (không dùng giá lưu trong session)
+     */
+    public double totalPrice(@NotNull Cart cart, @NotNull Map<Long, Book> books) {
+        return cart.getCartItems().stream()
+                .mapToDouble(item -> requirePrice(books.get(item.getBookId())) * item.getQuantity())
                 .sum();
     }
+
+    private static double requirePrice(Book book) {
+        if (book.getPrice() == null) {
+            throw new IllegalStateException("Sách '" + book.getTitle() + "' chưa có giá, không thể đặt hàng");
+        }
+        return book.getPrice();
+    }
+
+    /**
+     * Tạo các dòng hóa đơn từ giỏ hàng và lưu một lần (INSERT được gom batch)
+     */
+    public List<ItemInvoice> saveItemInvoices(@NotNull Invoice invoice, @NotNull Cart cart,
+                                              @NotNull Map<Long, Book> books) {
+        List<ItemInvoice> itemInvoices = new ArrayList<>(cart.getCartItems().size());
+        for (Item item : cart.getCartItems()) {
+            var itemInvoice = new ItemInvoice();
+            itemInvoice.setInvoice(invoice);
+            itemInvoice.setQuantity(item.getQuantity());
+            Book book = books.get(item.getBookId());
+            itemInvoice.setBook(book);
+            itemInvoice.setPrice(book.getPrice());
+            itemInvoices.add(itemInvoice);
+        }
+        return itemInvoiceRepository.saveAll(itemInvoices);
+    }
+
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
     public void saveCart(@NotNull HttpSession session) {
-        var cart = getCart(session);
-        if (cart.getCartItems().isEmpty()) return;
+        if (getCart(session).getCartItems().isEmpty()) return;
         var invoice = new Invoice();
-        invoice.setInvoiceDate(new Date(new Date().getTime()));
-        invoice.setPrice(getSumPrice(session));
         invoice.setStatus("PENDING");
-        invoiceRepository.save(invoice);
-        cart.getCartItems().forEach(item -> {
-            var items = new ItemInvoice();
-            items.setInvoice(invoice);
-            items.setQuantity(item.getQuantity());
-            items.setBook(bookRepository.findById(item.getBookId())
-                    .orElseThrow());
-            itemInvoiceRepository.save(items);
-        });
-        removeCart(session);
+        saveCart(session, invoice);
     }
     
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
     public void saveCart(@NotNull HttpSession session, @NotNull Invoice invoiceData) {
         var cart = getCart(session);
         if (cart.getCartItems().isEmpty()) {
             throw new IllegalStateException("Giỏ hàng trống");
         }
         
-        // Check stock availability before processing
-        for (Item item : cart.getCartItems()) {
-            if (!bookService.checkStock(item.getBookId(), item.getQuantity())) {
-                throw new IllegalStateException("Sách '" + item.getBookName() + "' không đủ hàng trong kho");
-            }
-        }
+        // Reserve stock for every line in one conditional batch update, then load all books at once
+        Map<Long, Book> books = reserveAndLoadBooks(cart);
         
         // Set invoice date and price
         invoiceData.setInvoiceDate(new Date());
-        invoiceData.setPrice(getSumPrice(session));
+        invoiceData.setPrice(totalPrice(cart, books));
         
         // Save invoice
         invoiceRepository.save(invoiceData);
         
-        // Save cart items and reduce stock
-        cart.getCartItems().forEach(item -> {
-            var itemInvoice = new ItemInvoice();
-            itemInvoice.setInvoice(invoiceData);
-            itemInvoice.setQuantity(item.getQuantity());
-            itemInvoice.setBook(bookRepository.findById(item.getBookId())
-                    .orElseThrow(() -> new IllegalArgumentException("Book not found with id: " + item.getBookId())));
-            itemInvoiceRepository.save(itemInvoice);
-            
-            // Reduce stock after order is placed
-            bookService.reduceStock(item.getBookId(), item.getQuantity());
-        });
+        // Save cart items (stock was already reserved above)
+        saveItemInvoices(invoiceData, cart, books);
+        salesRollupService.recordCreated(invoiceData);
         
         // Clear cart
         removeCart(session);
     }
-}
\ No newline at end of file
+}
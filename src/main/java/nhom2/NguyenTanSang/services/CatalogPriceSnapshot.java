@@ -0,0 +1,93 @@
+package nhom2.NguyenTanSang.services;
+
+import nhom2.NguyenTanSang.entities.Book;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Ảnh chụp giá sách trong bộ nhớ dùng để định giá lại giỏ hàng
+ * - Các dòng nằm trong một ConcurrentHashMap sửa tại chỗ: thêm/sửa/xóa một sách là O(1), không chép cả danh mục
+ * - Mỗi thay đổi ghi dòng trước rồi mới tăng version; người đọc lấy version trước rồi mới đọc dòng,
+ *   nên giỏ hàng ghi nhớ version cũ nhất có thể và sẽ được định giá lại ở lần sau nếu vừa có sửa đổi
+ * - Dựng từ toàn bộ sách khi khởi động (cùng lúc với chỉ mục tìm kiếm), cập nhật từng sách sau khi commit
+ * - Giỏ hàng ghi nhớ version đã định giá: cùng version thì không phải làm gì,
+ *   khác version thì định giá lại từng dòng O(1), chỉ hỏi database cho sách chưa có trong ảnh chụp
+ * - stockHint chỉ để hiển thị; tồn kho thật được kiểm tra khi đặt hàng
+ */
+@Service
+public class CatalogPriceSnapshot {
+
+    public record Entry(Long bookId, Double price, String title, String imageUrl, int stockHint) {
+        public static Entry of(Book book) {
+            return new Entry(book.getId(), book.getPrice(), book.getTitle(), book.getImageUrl(),
+                    book.getStock() != null ? book.getStock() : 0);
+        }
+    }
+
+    /**
+     * Version tại thời điểm đọc và các dòng (chỉ đọc, có thể đã mới hơn version)
+     */
+    public record Snapshot(long version, Map<Long, Entry> entries) {
+        public Entry get(Long bookId) {
+            return entries.get(bookId);
+        }
+    }
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Entry> readOnlyEntries = Collections.unmodifiableMap(entries);
+    private final AtomicLong version = new AtomicLong();
+
+    public Snapshot current() {
+        return new Snapshot(version.get(), readOnlyEntries);
+    }
+
+    /**
+     * Đã dựng xong từ database chưa (version 0 = chưa có dữ liệu)
+     */
+    public boolean isReady() {
+        return version.get() > 0;
+    }
+
+    /**
+     * Thay toàn bộ danh mục; trong lúc dựng, sách tạm thiếu chỉ khiến giỏ hàng hỏi database
+     */
+    public synchronized void rebuild(Collection<Entry> newEntries) {
+        Set<Long> bookIds = newEntries.stream().map(Entry::bookId).collect(Collectors.toSet());
+        newEntries.forEach(entry -> entries.put(entry.bookId(), entry));
+        entries.keySet().retainAll(bookIds);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Thêm hoặc cập nhật một sách - áp dụng sau khi transaction hiện tại commit
+     */
+    public void upsertAfterCommit(Entry entry) {
+        AfterCommit.run(() -> upsert(entry));
+    }
+
+    /**
+     * Xóa một sách - áp dụng sau khi transaction hiện tại commit
+     */
+    public void removeAfterCommit(Long bookId) {
+        AfterCommit.run(() -> remove(bookId));
+    }
+
+    public void upsert(Entry entry) {
+        entries.put(entry.bookId(), entry);
+        version.incrementAndGet();
+    }
+
+    public void remove(Long bookId) {
+        if (entries.remove(bookId) != null) {
+            version.incrementAndGet();
+        }
+    }
+}
@@ -11,13 +11,16 @@ import java.util.Objects;
 import java.util.Optional;
 @Service
 @RequiredArgsConstructor
-@Transactional(isolation = Isolation.SERIALIZABLE,
+@Transactional(isolation = Isolation.READ_COMMITTED,
         rollbackFor = {Exception.class, Throwable.class})
 public class CategoryService {
     private final ICategoryRepository categoryRepository;
+    private final BookSearchIndex bookSearchIndex;
+    @Transactional(readOnly = true)
     public List<Category> getAllCategories() {
         return categoryRepository.findAll();
     }
+    @Transactional(readOnly = true)
     public Optional<Category> getCategoryById(Long id) {
         return categoryRepository.findById(id);
     }
@@ -32,6 +35,7 @@ public class CategoryService {
         Objects.requireNonNull(existingCategory)
                 .setName(category.getName());
         categoryRepository.save(existingCategory);
+        bookSearchIndex.renameCategoryAfterCommit(existingCategory.getId(), existingCategory.getName());
     }
     public void deleteCategoryById(Long id) {
         categoryRepository.deleteById(id);
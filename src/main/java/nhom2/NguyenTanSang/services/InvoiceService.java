@@ -1,13 +1,11 @@
 package nhom2.NguyenTanSang.services;
 
+import nhom2.NguyenTanSang.config.RetryOnOptimisticLock;
 import nhom2.NguyenTanSang.daos.Cart;
-import nhom2.NguyenTanSang.daos.Item;
+import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.entities.Invoice;
-import nhom2.NguyenTanSang.entities.ItemInvoice;
 import nhom2.NguyenTanSang.entities.User;
-import nhom2.NguyenTanSang.repositories.IBookRepository;
 import nhom2.NguyenTanSang.repositories.IInvoiceRepository;
-import nhom2.NguyenTanSang.repositories.IItemInvoiceRepository;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -18,17 +16,18 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
-@Transactional(isolation = Isolation.SERIALIZABLE,
+@Transactional(isolation = Isolation.READ_COMMITTED,
         rollbackFor = {Exception.class, Throwable.class})
 public class InvoiceService {
     private final IInvoiceRepository invoiceRepository;
-    private final IItemInvoiceRepository itemInvoiceRepository;
-    private final IBookRepository bookRepository;
-    private final BookService bookService;
+    private final CartService cartService;
+    private final SalesRollupService salesRollupService;
+    private final PaymentStatusBroadcaster paymentStatusBroadcaster;
 
     /**
      * Tạo hóa đơn từ giỏ hàng
@@ -43,19 +42,11 @@ public class InvoiceService {
             throw new IllegalStateException("Giỏ hàng trống");
         }
 
-        // Kiểm tra stock trước khi tạo invoice
-        for (Item item : cart.getCartItems()) {
-            if (!bookService.checkStock(item.getBookId(), item.getQuantity())) {
-                throw new IllegalStateException(
-                    "Sách '" + item.getBookName() + "' không đủ số lượng trong kho"
-                );
-            }
-        }
+        // Giữ hàng và nạp toàn bộ sách của giỏ: số câu SQL không phụ thuộc số dòng
+        Map<Long, Book> books = cartService.reserveAndLoadBooks(cart);
 
-        // Tính tổng tiền
-        double totalPrice = cart.getCartItems().stream()
-                .mapToDouble(item -> item.getPrice() * item.getQuantity())
-                .sum();
+        // Tính tổng tiền theo giá hiện tại của sách
+        double totalPrice = cartService.totalPrice(cart, books);
 
         // Tạo Invoice
         Invoice invoice = Invoice.builder()
@@ -71,26 +62,18 @@ public class InvoiceService {
 
         invoice = invoiceRepository.save(invoice);
 
-        // Tạo ItemInvoice cho từng item trong cart và giảm stock
-        for (Item item : cart.getCartItems()) {
-            ItemInvoice itemInvoice = ItemInvoice.builder()
-                    .invoice(invoice)
-                    .book(bookRepository.findById(item.getBookId())
-                            .orElseThrow(() -> new IllegalArgumentException("Book not found: " + item.getBookId())))
-                    .quantity(item.getQuantity())
-                    .build();
-            itemInvoiceRepository.save(itemInvoice);
-            
-            // Giảm stock
-            bookService.reduceStock(item.getBookId(), item.getQuantity());
-        }
+        // Tạo ItemInvoice cho từng item trong cart (stock đã được trừ ở trên)
+        // id cấp sẵn từ id_generators nên các INSERT được gom thành một JDBC batch khi flush
+        cartService.saveItemInvoices(invoice, cart, books);
 
+        salesRollupService.recordCreated(invoice);
         return invoice;
     }
 
     /**
      * Lấy danh sách hóa đơn của user
      */
+    @Transactional(readOnly = true)
     public List<Invoice> getInvoicesByUser(Long userId) {
         return invoiceRepository.findByUserIdOrderByInvoiceDateDesc(userId);
     }
@@ -98,6 +81,7 @@ public class InvoiceService {
     /**
      * Lấy hóa đơn theo ID
      */
+    @Transactional(readOnly = true)
     public Optional<Invoice> getInvoiceById(Long id) {
         return invoiceRepository.findById(id);
     }
@@ -105,6 +89,7 @@ public class InvoiceService {
     /**
      * Cập nhật trạng thái hóa đơn
      */
+    @RetryOnOptimisticLock
     public Invoice updateInvoiceStatus(Long id, String status) {
         Invoice invoice = invoiceRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Invoice not found: " + id));
@@ -115,13 +100,17 @@ public class InvoiceService {
                     invoice.getStatus() + " to " + status);
         }
 
+        String oldStatus = invoice.getStatus();
         invoice.setStatus(status);
-        return invoiceRepository.save(invoice);
+        invoice = invoiceRepository.save(invoice);
+        salesRollupService.recordStatusChange(invoice, oldStatus);
+        return invoice;
     }
 
     /**
      * Hủy hóa đơn (chỉ được hủy khi status = PENDING)
      */
+    @RetryOnOptimisticLock
     public void cancelInvoice(Long id) {
         Invoice invoice = invoiceRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Invoice not found: " + id));
@@ -132,11 +121,58 @@ public class InvoiceService {
 
         invoice.setStatus("CANCELLED");
         invoiceRepository.save(invoice);
+        salesRollupService.recordStatusChange(invoice, "PENDING");
+    }
+
+    /**
+     * Xác nhận thanh toán (webhook SePay hoặc xác nhận thủ công)
+     * Trả về false nếu hóa đơn đã được thanh toán trước đó
+     */
+    @RetryOnOptimisticLock
+    public boolean confirmPayment(Long id, String transactionCode) {
+        Invoice invoice = invoiceRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Invoice not found: " + id));
+
+        if ("PAID".equals(invoice.getPaymentStatus())) {
+            return false;
+        }
+
+        String oldStatus = invoice.getStatus();
+        invoice.setPaymentStatus("PAID");
+        invoice.setTransactionCode(transactionCode);
+        invoice.setPaidAt(new Date());
+        invoice.setStatus("PROCESSING"); // Chuyển sang xử lý đơn hàng
+        invoiceRepository.save(invoice);
+        salesRollupService.recordStatusChange(invoice, oldStatus);
+        // Trang QR đang chờ nhận xác nhận ngay qua SSE (webhook và xác nhận thủ công đều đi qua đây)
+        paymentStatusBroadcaster.publishPaidAfterCommit(id, transactionCode);
+        return true;
+    }
+
+    /**
+     * Hủy thanh toán (chỉ khi hóa đơn chưa được thanh toán)
+     * Trả về false nếu hóa đơn không còn ở trạng thái chờ thanh toán
+     */
+    @RetryOnOptimisticLock
+    public boolean cancelPayment(Long id) {
+        Invoice invoice = invoiceRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Invoice not found: " + id));
+
+        if ("PENDING".equals(invoice.getPaymentStatus())) {
+            String oldStatus = invoice.getStatus();
+            invoice.setStatus("CANCELLED");
+            invoice.setPaymentStatus("FAILED");
+            invoiceRepository.save(invoice);
+            salesRollupService.recordStatusChange(invoice, oldStatus);
+            return true;
+        }
+        return false;
     }
 
     /**
      * Lấy tất cả hóa đơn (cho admin) với pagination
      */
+    @Transactional(readOnly = true)
     public Page<Invoice> getAllInvoices(Pageable pageable) {
         return invoiceRepository.findAll(pageable);
     }
@@ -144,6 +180,7 @@ public class InvoiceService {
     /**
      * Lấy hóa đơn theo trạng thái
      */
+    @Transactional(readOnly = true)
     public List<Invoice> getInvoicesByStatus(String status) {
         return invoiceRepository.findByStatus(status);
     }
@@ -151,6 +188,7 @@ public class InvoiceService {
     /**
      * Kiểm tra quyền truy cập hóa đơn
      */
+    @Transactional(readOnly = true)
     public boolean canUserAccessInvoice(Long invoiceId, Long userId) {
         return invoiceRepository.findById(invoiceId)
                 .map(invoice -> invoice.getUser().getId().equals(userId))
@@ -176,6 +214,7 @@ public class InvoiceService {
     /**
      * Đếm số đơn hàng theo trạng thái
      */
+    @Transactional(readOnly = true)
     public long countByStatus(String status) {
         return invoiceRepository.countByStatus(status);
     }
@@ -183,6 +222,7 @@ public class InvoiceService {
     /**
      * Tính tổng doanh thu theo trạng thái
      */
+    @Transactional(readOnly = true)
     public Double getTotalRevenueByStatus(String status) {
         Double total = invoiceRepository.sumTotalPriceByStatus(status);
         return total != null ? total : 0.0;
@@ -0,0 +1,174 @@
+package nhom2.NguyenTanSang.services;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.config.SePayConfig;
+import nhom2.NguyenTanSang.entities.Invoice;
+import nhom2.NguyenTanSang.utils.TransferContentParser;
+import nhom2.NguyenTanSang.utils.VietQrPayload;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tạo ảnh QR VietQR tại server thay vì để trình duyệt gọi qr.sepay.vn
+ * - Chuỗi dữ liệu theo chuẩn EMVCo/Napas (VietQrPayload), mã hóa ma trận QR bằng ZXing
+ * - Xuất PNG (hiển thị) hoặc SVG (in ấn, phóng to không vỡ)
+ * - Ảnh đã tạo giữ trong cache LRU theo (ngân hàng, tài khoản, số tiền, nội dung, định dạng)
+ */
+@Service
+@Slf4j
+public class PaymentQrService {
+    // Vùng trắng bắt buộc quanh mã QR, tính theo số ô
+    private static final int QUIET_ZONE = 4;
+
+    public enum Format {
+        PNG("image/png"),
+        SVG("image/svg+xml");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private record Key(String bankBin, String accountNumber, long amount, String content, Format format) {
+    }
+
+    private final SePayConfig sePayConfig;
+    private final TransferContentParser transferContentParser;
+    private final Map<Key, byte[]> images;
+
+    public PaymentQrService(SePayConfig sePayConfig, TransferContentParser transferContentParser) {
+        this.sePayConfig = sePayConfig;
+        this.transferContentParser = transferContentParser;
+        int maxSize = sePayConfig.getQr().getCacheSize();
+        this.images = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Đường dẫn ảnh QR của đơn hàng (phục vụ bởi PaymentController)
+     */
+    public static String imagePath(Long invoiceId, Format format) {
+        return "/payment/qr/" + invoiceId + "/image." + format.name().toLowerCase();
+    }
+
+    /**
+     * Ảnh QR chuyển khoản cho đơn hàng: đúng tài khoản nhận, số tiền và nội dung "ORDER_123"
+     */
+    public byte[] imageFor(Invoice invoice, Format format) {
+        return render(invoice.getPrice().longValue(), transferContentParser.format(invoice.getId()), format);
+    }
+
+    /**
+     * Ảnh QR cho số tiền và nội dung bất kỳ, lấy từ cache nếu đã tạo
+     */
+    public byte[] render(long amount, String content, Format format) {
+        String bankBin = resolveBankBin();
+        String accountNumber = sePayConfig.getAccount().getNumber();
+        Key key = new Key(bankBin, accountNumber, amount, content, format);
+
+        byte[] image;
+        synchronized (images) {
+            image = images.get(key);
+        }
+        if (image != null) {
+            return image;
+        }
+
+        // Tạo ngoài khóa; hai request trùng nhau cùng lắm tạo ảnh hai lần
+        ByteMatrix matrix = encode(VietQrPayload.build(bankBin, accountNumber, amount, content));
+        image = format == Format.PNG ? toPng(matrix) : toSvg(matrix);
+        synchronized (images) {
+            images.put(key, image);
+        }
+        log.debug("Rendered {} QR for amount {} / content {} ({} bytes)", format, amount, content, image.length);
+        return image;
+    }
+
+    private String resolveBankBin() {
+        String bin = sePayConfig.getBank().getBin();
+        if (bin != null && !bin.isBlank()) {
+            return bin.trim();
+        }
+        String code = sePayConfig.getBank().getCode();
+        bin = VietQrPayload.bankBin(code);
+        if (bin == null) {
+            throw new IllegalStateException("Unknown Napas BIN for bank code " + code + ", set sepay.bank.bin");
+        }
+        return bin;
+    }
+
+    private static ByteMatrix encode(String payload) {
+        try {
+            return Encoder.encode(payload, ErrorCorrectionLevel.M,
+                    Map.of(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name()))
+                    .getMatrix();
+        } catch (WriterException e) {
+            throw new IllegalStateException("Cannot encode VietQR payload", e);
+        }
+    }
+
+    private byte[] toPng(ByteMatrix matrix) {
+        int moduleSize = Math.max(1, sePayConfig.getQr().getModuleSize());
+        int modules = matrix.getWidth() + 2 * QUIET_ZONE;
+        int size = modules * moduleSize;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_BINARY);
+        int white = 0xFFFFFF;
+        int black = 0x000000;
+        for (int y = 0; y < size; y++) {
+            int row = y / moduleSize - QUIET_ZONE;
+            for (int x = 0; x < size; x++) {
+                int column = x / moduleSize - QUIET_ZONE;
+                image.setRGB(x, y, isDark(matrix, column, row) ? black : white);
+            }
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write QR PNG", e);
+        }
+    }
+
+    private static byte[] toSvg(ByteMatrix matrix) {
+        int modules = matrix.getWidth() + 2 * QUIET_ZONE;
+        StringBuilder path = new StringBuilder();
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++) {
+                if (isDark(matrix, x, y)) {
+                    path.append('M').append(x + QUIET_ZONE).append(' ').append(y + QUIET_ZONE).append("h1v1h-1z");
+                }
+            }
+        }
+        String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 " + modules + " " + modules
+                + "\" shape-rendering=\"crispEdges\">"
+                + "<rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>"
+                + "<path fill=\"#000\" d=\"" + path + "\"/></svg>";
+        return svg.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isDark(ByteMatrix matrix, int x, int y) {
+        return x >= 0 && y >= 0 && x < matrix.getWidth() && y < matrix.getHeight() && matrix.get(x, y) == 1;
+    }
+}
@@ -0,0 +1,114 @@
+package nhom2.NguyenTanSang.services;
+
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Đẩy trạng thái thanh toán tới trang QR qua Server-Sent Events
+ * - Trang QR đăng ký theo invoiceId, không cần polling database
+ * - Khi hóa đơn chuyển sang PAID (webhook hoặc xác nhận thủ công) mọi trang đang chờ nhận ngay sự kiện "paid"
+ * - Heartbeat định kỳ giữ kết nối qua proxy và dọn các kết nối đã đóng
+ */
+@Service
+@Slf4j
+public class PaymentStatusBroadcaster {
+    public static final long STREAM_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+    private static final int MAX_SUBSCRIBERS_PER_INVOICE = 5;
+
+    private final Map<Long, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Đăng ký nhận sự kiện thanh toán của một hóa đơn
+     */
+    public SseEmitter subscribe(Long invoiceId) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        List<SseEmitter> evicted = new ArrayList<>(1);
+        // Thêm và loại bỏ trong cùng thao tác trên map để không chạy đua với unsubscribe (xóa list rỗng)
+        subscribers.compute(invoiceId, (id, list) -> {
+            if (list == null) {
+                list = new CopyOnWriteArrayList<>();
+            }
+            if (list.size() >= MAX_SUBSCRIBERS_PER_INVOICE) {
+                // Quá nhiều tab cho cùng một hóa đơn: bỏ kết nối cũ nhất
+                evicted.add(list.remove(0));
+            }
+            list.add(emitter);
+            return list;
+        });
+        // Đóng ngoài compute: callback onCompletion gọi lại unsubscribe trên cùng key
+        evicted.forEach(SseEmitter::complete);
+        Runnable cleanup = () -> unsubscribe(invoiceId, emitter);
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(cleanup);
+        emitter.onError(error -> cleanup.run());
+        return emitter;
+    }
+
+    /**
+     * Báo hóa đơn đã thanh toán sau khi transaction hiện tại commit
+     */
+    public void publishPaidAfterCommit(Long invoiceId, String transactionCode) {
+        AfterCommit.run(() -> publishPaid(invoiceId, transactionCode));
+    }
+
+    /**
+     * Gửi sự kiện "paid" tới mọi kết nối đang chờ và đóng các kết nối đó
+     */
+    public void publishPaid(Long invoiceId, String transactionCode) {
+        List<SseEmitter> list = subscribers.remove(invoiceId);
+        if (list == null) {
+            return;
+        }
+        Map<String, Object> payload = Map.of(
+                "isPaid", true,
+                "status", "PAID",
+                "transactionCode", transactionCode != null ? transactionCode : "");
+        for (SseEmitter emitter : list) {
+            sendAndComplete(emitter, payload);
+        }
+        log.info("Pushed payment confirmation for invoice #{} to {} subscriber(s)", invoiceId, list.size());
+    }
+
+    /**
+     * Gửi sự kiện "paid" cho một kết nối (trường hợp hóa đơn đã thanh toán trước khi đăng ký)
+     */
+    public void sendAndComplete(SseEmitter emitter, Map<String, Object> payload) {
+        try {
+            emitter.send(SseEmitter.event().name("paid").data(payload, MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    @Scheduled(fixedDelay = 30_000)
+    public void heartbeat() {
+        subscribers.forEach((invoiceId, list) -> {
+            for (SseEmitter emitter : list) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    unsubscribe(invoiceId, emitter);
+                }
+            }
+        });
+    }
+
+    private void unsubscribe(Long invoiceId, SseEmitter emitter) {
+        subscribers.computeIfPresent(invoiceId, (id, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+    }
+}
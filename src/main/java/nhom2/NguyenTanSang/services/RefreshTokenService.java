@@ -0,0 +1,147 @@
+package nhom2.NguyenTanSang.services;
+
+import io.jsonwebtoken.Claims;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.entities.RefreshToken;
+import nhom2.NguyenTanSang.repositories.IRefreshTokenRepository;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import nhom2.NguyenTanSang.utils.JwtUtil;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Quản lý refresh token theo family (chuỗi xoay vòng)
+ * - Mỗi lần refresh: token cũ bị đánh dấu đã dùng, cấp token mới cùng family
+ * - Dùng lại token đã xoay vòng (bị đánh cắp) => thu hồi cả family
+ * - Chỉ mục thu hồi trong bộ nhớ (tokenId/familyId -> hạn): kiểm tra token chỉ là tra cứu hash, không SQL
+ * - Job định kỳ xóa các token đã hết hạn khỏi database và chỉ mục
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+@Transactional(isolation = Isolation.READ_COMMITTED,
+        rollbackFor = {Exception.class, Throwable.class})
+public class RefreshTokenService {
+    private final IRefreshTokenRepository refreshTokenRepository;
+    private final JwtUtil jwtUtil;
+
+    // tokenId -> hạn (epoch ms) của các token đã xoay vòng
+    private final Map<String, Long> usedTokens = new ConcurrentHashMap<>();
+    // familyId -> hạn (epoch ms) của token mới nhất trong family đã bị thu hồi
+    private final Map<String, Long> revokedFamilies = new ConcurrentHashMap<>();
+
+    /**
+     * Kết quả xoay vòng: username và refresh token mới
+     */
+    public record Rotation(String username, String refreshToken) {
+    }
+
+    /**
+     * Cấp refresh token cho lần đăng nhập mới (family mới)
+     */
+    public String issue(String username) {
+        return issue(username, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Đổi refresh token lấy token mới cùng family
+     * Trả về empty nếu token không hợp lệ, đã bị thu hồi hoặc bị dùng lại
+     * (không ném exception để việc thu hồi family vẫn được commit)
+     */
+    public Optional<Rotation> rotate(String refreshToken) {
+        Claims claims;
+        try {
+            claims = jwtUtil.parseClaims(refreshToken);
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+        String tokenId = claims.getId();
+        String familyId = claims.get(JwtUtil.FAMILY_CLAIM, String.class);
+        if (tokenId == null || familyId == null || revokedFamilies.containsKey(familyId)) {
+            return Optional.empty();
+        }
+        if (usedTokens.containsKey(tokenId)
+                || refreshTokenRepository.markUsed(tokenId, Instant.now()) == 0) {
+            log.warn("Refresh token reuse detected for user {}, revoking family {}", claims.getSubject(), familyId);
+            revokeFamily(familyId, claims.getExpiration().getTime());
+            return Optional.empty();
+        }
+        long expiresAt = claims.getExpiration().getTime();
+        AfterCommit.run(() -> usedTokens.put(tokenId, expiresAt));
+        return Optional.of(new Rotation(claims.getSubject(), issue(claims.getSubject(), familyId)));
+    }
+
+    /**
+     * Thu hồi cả family của token (đăng xuất)
+     */
+    public void revoke(String refreshToken) {
+        try {
+            Claims claims = jwtUtil.parseClaims(refreshToken);
+            String familyId = claims.get(JwtUtil.FAMILY_CLAIM, String.class);
+            if (familyId != null) {
+                revokeFamily(familyId, claims.getExpiration().getTime());
+            }
+        } catch (Exception e) {
+            log.debug("Ignoring revoke for invalid refresh token: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Nạp chỉ mục thu hồi từ database khi ứng dụng khởi động
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void loadRevocationIndex() {
+        Instant now = Instant.now();
+        refreshTokenRepository.findUsedTokens(now)
+                .forEach(row -> usedTokens.put((String) row[0], ((Instant) row[1]).toEpochMilli()));
+        refreshTokenRepository.findRevokedFamilies(now)
+                .forEach(row -> revokedFamilies.put((String) row[0], ((Instant) row[1]).toEpochMilli()));
+        log.info("Refresh token revocation index loaded: {} used tokens, {} revoked families",
+                usedTokens.size(), revokedFamilies.size());
+    }
+
+    /**
+     * Xóa token hết hạn (mỗi giờ): token hết hạn bị từ chối bởi chữ ký JWT, không cần giữ lại
+     */
+    @Scheduled(fixedDelayString = "${jwt.refresh-sweep-interval-ms:3600000}")
+    public void sweepExpired() {
+        Instant now = Instant.now();
+        int deleted = refreshTokenRepository.deleteExpired(now);
+        long nowMillis = now.toEpochMilli();
+        usedTokens.values().removeIf(expiresAt -> expiresAt <= nowMillis);
+        revokedFamilies.values().removeIf(expiresAt -> expiresAt <= nowMillis);
+        if (deleted > 0) {
+            log.info("Swept {} expired refresh tokens", deleted);
+        }
+    }
+
+    private String issue(String username, String familyId) {
+        String tokenId = UUID.randomUUID().toString();
+        refreshTokenRepository.save(RefreshToken.builder()
+                .tokenId(tokenId)
+                .familyId(familyId)
+                .username(username)
+                .expiresAt(Instant.now().plusMillis(jwtUtil.getRefreshExpirationMillis()))
+                .build());
+        return jwtUtil.generateRefreshToken(username, tokenId, familyId);
+    }
+
+    private void revokeFamily(String familyId, long expiresAtMillis) {
+        refreshTokenRepository.revokeFamily(familyId);
+        // Giữ đến hạn dài nhất có thể của family (token mới nhất được cấp lúc này)
+        long until = Math.max(expiresAtMillis, System.currentTimeMillis() + jwtUtil.getRefreshExpirationMillis());
+        AfterCommit.run(() -> revokedFamilies.merge(familyId, until, Math::max));
+    }
+}
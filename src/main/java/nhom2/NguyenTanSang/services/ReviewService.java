@@ -1,10 +1,15 @@
 package nhom2.NguyenTanSang.services;
 
+import nhom2.NguyenTanSang.entities.Book;
 import nhom2.NguyenTanSang.entities.Review;
 import nhom2.NguyenTanSang.entities.User;
+import nhom2.NguyenTanSang.repositories.IBookRepository;
 import nhom2.NguyenTanSang.repositories.IInvoiceRepository;
 import nhom2.NguyenTanSang.repositories.IReviewRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -18,11 +23,13 @@ import java.util.List;
 
 @Service
 @RequiredArgsConstructor
-@Transactional(isolation = Isolation.SERIALIZABLE,
+@Slf4j
+@Transactional(isolation = Isolation.READ_COMMITTED,
         rollbackFor = {Exception.class, Throwable.class})
 public class ReviewService {
     private final IReviewRepository reviewRepository;
     private final IInvoiceRepository invoiceRepository;
+    private final IBookRepository bookRepository;
     
     /**
      * Thêm review mới
@@ -49,12 +56,15 @@ public class ReviewService {
             review.setReviewDate(new Date());
         }
         
-        return reviewRepository.save(review);
+        Review saved = reviewRepository.save(review);
+        bookRepository.applyRatingDelta(bookId, review.getRating(), 1);
+        return saved;
     }
     
     /**
      * Lấy danh sách review của sách với phân trang
      */
+    @Transactional(readOnly = true)
     public Page<Review> getReviewsByBook(Long bookId, int page, int size) {
         Pageable pageable = PageRequest.of(page, size, Sort.by("reviewDate").descending());
         return reviewRepository.findByBookId(bookId, pageable);
@@ -63,28 +73,49 @@ public class ReviewService {
     /**
      * Lấy tất cả review của sách (không phân trang)
      */
+    @Transactional(readOnly = true)
     public List<Review> getAllReviewsByBook(Long bookId) {
         return reviewRepository.findByBookIdOrderByReviewDateDesc(bookId);
     }
     
     /**
-     * Tính rating trung bình của sách
+     * Rating trung bình của sách (đọc từ cột tổng hợp trên Book)
      */
+    @Transactional(readOnly = true)
     public Double getAverageRating(Long bookId) {
-        Double avg = reviewRepository.getAverageRatingByBookId(bookId);
-        return avg != null ? avg : 0.0;
+        return bookRepository.findById(bookId)
+            .map(Book::getAverageRating)
+            .orElse(0.0);
     }
     
     /**
-     * Đếm số review của sách
+     * Đếm số review của sách (đọc từ cột tổng hợp trên Book)
      */
+    @Transactional(readOnly = true)
     public long countReviews(Long bookId) {
-        return reviewRepository.countByBookId(bookId);
+        return bookRepository.findById(bookId)
+            .map(Book::getTotalReviews)
+            .orElse(0);
+    }
+    
+    /**
+     * Backfill cột tổng hợp đánh giá cho dữ liệu có sẵn
+     * Chạy khi khởi động nếu tổng số review không khớp với tổng rating_count
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillRatingAggregatesIfStale() {
+        long reviewCount = reviewRepository.count();
+        Long aggregatedCount = bookRepository.sumRatingCount();
+        if (aggregatedCount == null || aggregatedCount != reviewCount) {
+            int updated = bookRepository.rebuildRatingAggregates();
+            log.info("Backfilled rating aggregates for {} books ({} reviews)", updated, reviewCount);
+        }
     }
     
     /**
      * Kiểm tra user đã mua sách này chưa
      */
+    @Transactional(readOnly = true)
     public boolean hasUserPurchasedBook(Long userId, Long bookId) {
         return invoiceRepository.existsByUserIdAndStatusAndItemInvoices_BookId(
             userId, "COMPLETED", bookId
@@ -95,6 +126,7 @@ public class ReviewService {
      * Kiểm tra user có thể review sách không
      * Điều kiện: đã mua và chưa review
      */
+    @Transactional(readOnly = true)
     public boolean canUserReview(Long userId, Long bookId) {
         return hasUserPurchasedBook(userId, bookId) 
             && !reviewRepository.existsByUserIdAndBookId(userId, bookId);
@@ -103,6 +135,7 @@ public class ReviewService {
     /**
      * Lấy review của user cho sách
      */
+    @Transactional(readOnly = true)
     public Review getUserReviewForBook(Long userId, Long bookId) {
         return reviewRepository.findByUserIdAndBookId(userId, bookId)
             .orElse(null);
@@ -118,7 +151,7 @@ public class ReviewService {
             
         // Kiểm tra quyền: chỉ owner hoặc admin
         boolean isOwner = review.getUser().getId().equals(user.getId());
-        boolean isAdmin = user.getRoles().stream()
+        boolean isAdmin = !isOwner && user.getRoles().stream()
             .anyMatch(r -> r.getName().equals("ADMIN"));
             
         if (!isOwner && !isAdmin) {
@@ -126,6 +159,7 @@ public class ReviewService {
         }
         
         reviewRepository.deleteById(id);
+        bookRepository.applyRatingDelta(review.getBook().getId(), -review.getRating(), -1);
     }
     
     /**
@@ -145,10 +179,15 @@ public class ReviewService {
             throw new IllegalArgumentException("Đánh giá phải từ 1 đến 5 sao");
         }
         
+        int ratingDelta = rating - review.getRating();
         review.setRating(rating);
         review.setComment(comment);
         review.setReviewDate(new Date()); // Update review date
         
-        return reviewRepository.save(review);
+        Review saved = reviewRepository.save(review);
+        if (ratingDelta != 0) {
+            bookRepository.applyRatingDelta(review.getBook().getId(), ratingDelta, 0);
+        }
+        return saved;
     }
 }
@@ -0,0 +1,135 @@
+package nhom2.NguyenTanSang.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.config.SalesRollupConfig;
+import nhom2.NguyenTanSang.entities.Invoice;
+import nhom2.NguyenTanSang.repositories.IBookSalesDailyRollupRepository;
+import nhom2.NguyenTanSang.repositories.IInvoiceRepository;
+import nhom2.NguyenTanSang.repositories.IItemInvoiceRepository;
+import nhom2.NguyenTanSang.repositories.ISalesDailyRollupRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/**
+ * Duy trì các bảng tổng hợp doanh số theo ngày
+ * - Cập nhật tăng dần trong cùng transaction với thay đổi của hóa đơn
+ * - Rebuild toàn bộ từ lịch sử khi cần (khởi động lần đầu hoặc admin yêu cầu)
+ * - Cả hai đường dùng cùng múi giờ sales.rollup.zone để xác định ngày bán
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SalesRollupService {
+    private static final String COMPLETED = "COMPLETED";
+
+    private final ISalesDailyRollupRepository salesRollupRepository;
+    private final IBookSalesDailyRollupRepository bookSalesRollupRepository;
+    private final IInvoiceRepository invoiceRepository;
+    private final IItemInvoiceRepository itemInvoiceRepository;
+    private final BookSuggestionIndex bookSuggestionIndex;
+    private final SalesRollupConfig salesRollupConfig;
+
+    /**
+     * Ghi nhận hóa đơn mới (gọi sau khi invoice và các ItemInvoice đã được lưu)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordCreated(Invoice invoice) {
+        apply(invoice, invoice.getStatus(), 1);
+    }
+
+    /**
+     * Ghi nhận việc hóa đơn chuyển từ oldStatus sang trạng thái hiện tại
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordStatusChange(Invoice invoice, String oldStatus) {
+        if (Objects.equals(oldStatus, invoice.getStatus())) {
+            return;
+        }
+        apply(invoice, oldStatus, -1);
+        apply(invoice, invoice.getStatus(), 1);
+    }
+
+    /**
+     * Xóa và tính lại toàn bộ bảng tổng hợp từ hóa đơn
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
+    public void rebuild() {
+        salesRollupRepository.deleteAllRows();
+        bookSalesRollupRepository.deleteAllRows();
+        String zoneOffset = zoneOffset();
+        int days = salesRollupRepository.rebuildFromInvoices(zoneOffset);
+        int bookDays = bookSalesRollupRepository.rebuildFromInvoices(zoneOffset);
+        log.info("Rebuilt sales rollups: {} day/status rows, {} day/book rows", days, bookDays);
+    }
+
+    /**
+     * Lần khởi động đầu tiên sau khi thêm bảng tổng hợp: dựng lại từ dữ liệu có sẵn
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE) // Trước khi các chỉ mục tìm kiếm đọc số liệu bán hàng
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
+    public void rebuildIfEmpty() {
+        if (salesRollupRepository.count() == 0 && invoiceRepository.count() > 0) {
+            rebuild();
+        }
+    }
+
+    private void apply(Invoice invoice, String status, int sign) {
+        if (status == null) {
+            return;
+        }
+        LocalDate salesDate = salesDateOf(invoice);
+        double revenue = invoice.getPrice() != null ? invoice.getPrice() : 0.0;
+        salesRollupRepository.upsert(salesDate, status, sign, sign * revenue);
+        if (COMPLETED.equals(status)) {
+            bookSalesRollupRepository.upsertFromInvoice(salesDate, invoice.getId(), sign);
+            // Trọng số gợi ý tìm kiếm theo số lượng bán
+            for (Object[] row : itemInvoiceRepository.sumQuantityByBookForInvoice(invoice.getId())) {
+                bookSuggestionIndex.addSalesAfterCommit((Long) row[0], sign * ((Number) row[1]).longValue());
+            }
+        }
+    }
+
+    /**
+     * Ngày hiện tại theo múi giờ của bảng tổng hợp
+     */
+    public LocalDate today() {
+        return LocalDate.now(zone());
+    }
+
+    private LocalDate salesDateOf(Invoice invoice) {
+        if (invoice.getInvoiceDate() == null) {
+            return today();
+        }
+        return Instant.ofEpochMilli(invoice.getInvoiceDate().getTime()).atZone(zone()).toLocalDate();
+    }
+
+    private ZoneId zone() {
+        return ZoneId.of(salesRollupConfig.getZone());
+    }
+
+    // Độ lệch so với UTC dạng "+07:00" cho CONVERT_TZ (không cần bảng múi giờ của MySQL)
+    private String zoneOffset() {
+        ZoneId zone = zone();
+        if (!zone.getRules().isFixedOffset()) {
+            throw new IllegalStateException("sales.rollup.zone must have a fixed UTC offset: " + zone);
+        }
+        ZoneOffset offset = zone.getRules().getOffset(Instant.EPOCH);
+        return offset.equals(ZoneOffset.UTC) ? "+00:00" : offset.getId();
+    }
+}
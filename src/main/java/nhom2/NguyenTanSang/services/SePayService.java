@@ -6,11 +6,10 @@ import nhom2.NguyenTanSang.config.SePayConfig;
 import nhom2.NguyenTanSang.dtos.SePayQrCodeDto;
 import nhom2.NguyenTanSang.dtos.SePayTransactionDto;
 import nhom2.NguyenTanSang.entities.Invoice;
+import nhom2.NguyenTanSang.utils.TransferContentParser;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,12 +26,14 @@ public class SePayService {
     
     private final SePayConfig sePayConfig;
     private final WebClient.Builder webClientBuilder;
+    private final TransferContentParser transferContentParser;
 
     /**
-     * 1. Generate Dynamic QR Code for Order Payment using Napas QR (SePay)
+     * 1. Generate Dynamic QR Code for Order Payment (VietQR / Napas247)
      * 
-     * Creates a unique QR code for each order using Napas QR API from SePay.
-     * This API is 100% compatible with ALL Vietnamese banks including TPBank.
+     * Creates a unique QR code for each order. The image is rendered by our own
+     * endpoint (PaymentQrService), so the browser never calls a third-party host.
+     * VietQR is supported by ALL Vietnamese banks including TPBank.
      * 
      * The QR contains:
      * - Bank code (TPB for TPBank)
@@ -50,21 +51,14 @@ public class SePayService {
      */
     public SePayQrCodeDto generateQrCode(Invoice invoice) {
         try {
-            // Generate unique transfer content: "ORDER_123"
+            // Generate unique transfer content: "ORDER_123" (prefix/checksum from sepay.transfer.*)
             // This format helps webhook identify which order was paid
-            String transferContent = String.format("ORDER_%d", invoice.getId());
+            String transferContent = transferContentParser.format(invoice.getId());
             
-            // Build Napas QR URL using SePay API (100% compatible with all VN banks)
-            // Format: https://qr.sepay.vn/img?acc={account}&bank={bank}&amount={amount}&des={content}
-            String qrImageUrl = String.format(
-                "https://qr.sepay.vn/img?acc=%s&bank=%s&amount=%d&des=%s",
-                sePayConfig.getAccount().getNumber(),      // Account number
-                sePayConfig.getBank().getCode(),           // Bank code (TPB)
-                invoice.getPrice().longValue(),            // Amount in VND
-                URLEncoder.encode(transferContent, StandardCharsets.UTF_8)  // Transfer content
-            );
+            // Local VietQR image endpoint: /payment/qr/{id}/image.png
+            String qrImageUrl = PaymentQrService.imagePath(invoice.getId(), PaymentQrService.Format.PNG);
             
-            log.info("✅ [ORDER #{}] Generated Napas QR URL: {}", invoice.getId(), qrImageUrl);
+            log.info("✅ [ORDER #{}] Generated VietQR image URL: {}", invoice.getId(), qrImageUrl);
             log.info("   Amount: {} VND | Content: {} | Bank: {} | Account: {}", 
                     invoice.getPrice().longValue(), transferContent, 
                     sePayConfig.getBank().getCode(), sePayConfig.getAccount().getNumber());
@@ -129,7 +123,7 @@ public class SePayService {
             
             List<SePayTransactionDto> transactions = getRecentTransactions(50);
             
-            String expectedContent = String.format("ORDER_%d", invoice.getId());
+            String expectedContent = transferContentParser.format(invoice.getId());
             log.info("🔍 [DEBUG] Looking for content: '{}'", expectedContent);
             log.info("🔍 [DEBUG] Total transactions to check: {}", transactions.size());
             
@@ -170,7 +164,7 @@ public class SePayService {
     public String findTransactionCode(Invoice invoice) {
         try {
             List<SePayTransactionDto> transactions = getRecentTransactions(50);
-            String expectedContent = String.format("ORDER_%d", invoice.getId());
+            String expectedContent = transferContentParser.format(invoice.getId());
             
             for (SePayTransactionDto tx : transactions) {
                 String txContent = tx.getContent().toUpperCase().trim();
@@ -2,32 +2,44 @@ package nhom2.NguyenTanSang.services;
 
 import lombok.RequiredArgsConstructor;
 import nhom2.NguyenTanSang.repositories.IBookRepository;
+import nhom2.NguyenTanSang.repositories.IBookSalesDailyRollupRepository;
 import nhom2.NguyenTanSang.repositories.IInvoiceRepository;
-import nhom2.NguyenTanSang.repositories.IItemInvoiceRepository;
+import nhom2.NguyenTanSang.repositories.ISalesDailyRollupRepository;
 import nhom2.NguyenTanSang.repositories.IUserRepository;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Số liệu cho dashboard admin
+ * Các chỉ số doanh số chỉ đọc từ bảng tổng hợp theo ngày (xem SalesRollupService),
+ * nên chi phí không phụ thuộc vào số lượng hóa đơn trong lịch sử
+ */
 @Service
 @RequiredArgsConstructor
+@Transactional(readOnly = true)
 public class StatisticsService {
+    private static final List<String> ORDER_STATUSES = List.of("PENDING", "PROCESSING", "COMPLETED", "CANCELLED");
+
     private final IInvoiceRepository invoiceRepository;
     private final IBookRepository bookRepository;
     private final IUserRepository userRepository;
-    private final IItemInvoiceRepository itemInvoiceRepository;
+    private final ISalesDailyRollupRepository salesRollupRepository;
+    private final IBookSalesDailyRollupRepository bookSalesRollupRepository;
     
     public Double getTotalRevenue() {
-        Double revenue = invoiceRepository.sumTotalPriceByStatus("COMPLETED");
+        Double revenue = salesRollupRepository.sumRevenueByStatus("COMPLETED");
         return revenue != null ? revenue : 0.0;
     }
     
     public Long getTotalCompletedOrders() {
-        Long count = invoiceRepository.countByStatus("COMPLETED");
+        Long count = salesRollupRepository.sumOrderCountByStatus("COMPLETED");
         return count != null ? count : 0L;
     }
     
@@ -41,16 +53,33 @@ public class StatisticsService {
     
     public List<Map<String, Object>> getBestSellingBooks(int limit) {
         // Return: [{bookTitle, totalSold, revenue}, ...]
-        return itemInvoiceRepository.findBestSellingBooks(PageRequest.of(0, limit));
+        return bookSalesRollupRepository.findBestSellingBooks(PageRequest.of(0, limit));
     }
     
     public Map<String, Double> getRevenueByMonth(int year) {
         // Return: {"01": 1000000, "02": 1500000, ...}
         Map<String, Double> result = new LinkedHashMap<>();
         for (int month = 1; month <= 12; month++) {
-            String monthKey = String.format("%02d", month);
-            Double revenue = invoiceRepository.sumRevenueByYearAndMonth(year, month);
-            result.put(monthKey, revenue != null ? revenue : 0.0);
+            result.put(String.format("%02d", month), 0.0);
+        }
+        List<Object[]> rows = salesRollupRepository.sumRevenueByMonth("COMPLETED",
+                LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1));
+        for (Object[] row : rows) {
+            int month = ((Number) row[1]).intValue();
+            result.put(String.format("%02d", month), row[2] != null ? ((Number) row[2]).doubleValue() : 0.0);
+        }
+        return result;
+    }
+    
+    public Map<LocalDate, Double> getRevenueByDay(LocalDate from, LocalDate toExclusive) {
+        // Return: {2026-01-01: 1000000, 2026-01-02: 0.0, ...} - đủ mọi ngày trong khoảng
+        Map<LocalDate, Double> result = new LinkedHashMap<>();
+        for (LocalDate day = from; day.isBefore(toExclusive); day = day.plusDays(1)) {
+            result.put(day, 0.0);
+        }
+        List<Object[]> rows = salesRollupRepository.sumRevenueByDay("COMPLETED", from, toExclusive);
+        for (Object[] row : rows) {
+            result.put((LocalDate) row[0], row[1] != null ? ((Number) row[1]).doubleValue() : 0.0);
         }
         return result;
     }
@@ -61,10 +90,10 @@ public class StatisticsService {
     
     public Map<String, Long> getOrderStatusCount() {
         Map<String, Long> result = new HashMap<>();
-        result.put("PENDING", invoiceRepository.countByStatus("PENDING"));
-        result.put("PROCESSING", invoiceRepository.countByStatus("PROCESSING"));
-        result.put("COMPLETED", invoiceRepository.countByStatus("COMPLETED"));
-        result.put("CANCELLED", invoiceRepository.countByStatus("CANCELLED"));
+        ORDER_STATUSES.forEach(status -> result.put(status, 0L));
+        for (Object[] row : salesRollupRepository.sumOrderCountGroupByStatus()) {
+            result.put((String) row[0], row[1] != null ? ((Number) row[1]).longValue() : 0L);
+        }
         return result;
     }
 }
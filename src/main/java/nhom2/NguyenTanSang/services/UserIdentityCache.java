@@ -0,0 +1,143 @@
+package nhom2.NguyenTanSang.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.entities.Role;
+import nhom2.NguyenTanSang.entities.User;
+import nhom2.NguyenTanSang.repositories.IUserRepository;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Cache thông tin định danh của user (id, quyền, trạng thái) theo username
+ * - Giới hạn số phần tử (LRU) và thời gian sống (TTL)
+ * - Bị xóa khi user được cập nhật/xóa/đổi quyền (sau khi transaction commit)
+ * - Số lần hit/miss được đăng ký vào Micrometer: user.identity.cache{result=hit|miss}
+ */
+@Service
+@Slf4j
+public class UserIdentityCache {
+
+    /**
+     * Bản sao bất biến của thông tin user cần cho phân quyền và các màn hình thường dùng
+     */
+    public record UserIdentity(Long id, String username, String email, String phone,
+                               Set<String> roles, boolean enabled) {
+        public boolean hasRole(String role) {
+            return roles.contains(role);
+        }
+    }
+
+    private record Entry(UserIdentity identity, long expiresAtMillis) {
+    }
+
+    private final IUserRepository userRepository;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UserIdentityCache(IUserRepository userRepository,
+                             ObjectProvider<MeterRegistry> meterRegistry,
+                             @Value("${user.identity-cache.max-size:1000}") int maxSize,
+                             @Value("${user.identity-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        meterRegistry.ifAvailable(registry -> {
+            FunctionCounter.builder("user.identity.cache", hits, LongAdder::doubleValue)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("user.identity.cache", misses, LongAdder::doubleValue)
+                    .tag("result", "miss")
+                    .register(registry);
+            Gauge.builder("user.identity.cache.size", this, UserIdentityCache::size)
+                    .register(registry);
+        });
+    }
+
+    /**
+     * Lấy thông tin user theo username, chỉ truy vấn database khi cache không có hoặc đã hết hạn
+     */
+    public Optional<UserIdentity> find(String username) {
+        if (username == null) {
+            return Optional.empty();
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(username);
+            if (entry != null && entry.expiresAtMillis() > now) {
+                hits.increment();
+                return Optional.of(entry.identity());
+            }
+        }
+        misses.increment();
+        Optional<UserIdentity> identity = userRepository.findByUsername(username).map(UserIdentityCache::toIdentity);
+        identity.ifPresent(value -> {
+            synchronized (entries) {
+                entries.put(username, new Entry(value, now + ttlMillis));
+            }
+        });
+        return identity;
+    }
+
+    /**
+     * Lấy thông tin user, báo lỗi nếu không tồn tại
+     */
+    public UserIdentity get(String username) {
+        return find(username)
+                .orElseThrow(() -> new IllegalStateException("User not found: " + username));
+    }
+
+    /**
+     * Xóa user khỏi cache sau khi transaction hiện tại commit
+     * (xóa trước commit có thể bị request khác nạp lại dữ liệu cũ)
+     */
+    public void invalidateAfterCommit(String username) {
+        AfterCommit.run(() -> invalidate(username));
+    }
+
+    public void invalidate(String username) {
+        synchronized (entries) {
+            entries.remove(username);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static UserIdentity toIdentity(User user) {
+        Set<String> roles = user.getRoles().stream()
+                .map(Role::getName)
+                .collect(Collectors.toUnmodifiableSet());
+        return new UserIdentity(user.getId(), user.getUsername(), user.getEmail(), user.getPhone(),
+                roles, user.isEnabled());
+    }
+}
@@ -5,11 +5,12 @@ import nhom2.NguyenTanSang.constants.Role;
 import nhom2.NguyenTanSang.entities.User;
 import nhom2.NguyenTanSang.repositories.IRoleRepository;
 import nhom2.NguyenTanSang.repositories.IUserRepository;
+import nhom2.NguyenTanSang.utils.TokenVersionRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
@@ -23,12 +24,14 @@ import java.util.Optional;
 public class UserService implements UserDetailsService {
     private final IUserRepository userRepository;
     private final IRoleRepository roleRepository;
+    private final TokenVersionRegistry tokenVersionRegistry;
+    private final UserIdentityCache userIdentityCache;
+    private final PasswordEncoder passwordEncoder;
 
-    @Transactional(isolation = Isolation.SERIALIZABLE,
+    @Transactional(isolation = Isolation.READ_COMMITTED,
             rollbackFor = {Exception.class, Throwable.class})
     public void save(@NotNull User user) {
-        user.setPassword(new BCryptPasswordEncoder()
-                .encode(user.getPassword()));
+        user.setPassword(passwordEncoder.encode(user.getPassword()));
         userRepository.save(user);
     }
 
@@ -63,7 +66,7 @@ public class UserService implements UserDetailsService {
      * - Nếu username đã tồn tại: bỏ qua
      * - Nếu chưa tồn tại: tạo user mới
      */
-    @Transactional(isolation = Isolation.SERIALIZABLE,
+    @Transactional(isolation = Isolation.READ_COMMITTED,
             rollbackFor = {Exception.class, Throwable.class})
     public void saveOauthUser(String email, @NotNull String username) {
         // Kiểm tra xem email đã tồn tại chưa
@@ -93,7 +96,7 @@ public class UserService implements UserDetailsService {
         var user = new User();
         user.setUsername(finalUsername);
         user.setEmail(email);
-        user.setPassword(new BCryptPasswordEncoder().encode(finalUsername));
+        user.setPassword(passwordEncoder.encode(finalUsername));
         user.setProvider(Provider.GOOGLE.value);
         user.getRoles().add(roleRepository.findRoleById(Role.USER.value));
         userRepository.save(user);
@@ -102,12 +105,15 @@ public class UserService implements UserDetailsService {
     /**
      * Set default role (USER) cho user mới đăng ký
      */
-    @Transactional(isolation = Isolation.SERIALIZABLE,
+    @Transactional(isolation = Isolation.READ_COMMITTED,
             rollbackFor = {Exception.class, Throwable.class})
     public void setDefaultRole(String username) {
         userRepository.findByUsername(username).ifPresent(user -> {
             user.getRoles().add(roleRepository.findRoleById(Role.USER.value));
             userRepository.save(user);
+            // Quyền thay đổi: thu hồi các JWT đã cấp với danh sách quyền cũ
+            tokenVersionRegistry.bump(username);
+            userIdentityCache.invalidateAfterCommit(username);
         });
     }
     
@@ -139,19 +145,33 @@ public class UserService implements UserDetailsService {
     /**
      * Xóa user theo ID (cho admin)
      */
-    @Transactional(isolation = Isolation.SERIALIZABLE,
+    @Transactional(isolation = Isolation.READ_COMMITTED,
             rollbackFor = {Exception.class, Throwable.class})
     public void deleteUser(Long id) {
+        userRepository.findById(id).ifPresent(user -> {
+            tokenVersionRegistry.bump(user.getUsername());
+            userIdentityCache.invalidateAfterCommit(user.getUsername());
+        });
         userRepository.deleteById(id);
     }
     
     /**
      * Cập nhật thông tin user
      */
-    @Transactional(isolation = Isolation.SERIALIZABLE,
+    @Transactional(isolation = Isolation.READ_COMMITTED,
             rollbackFor = {Exception.class, Throwable.class})
     public void updateUser(@NotNull User user) {
         userRepository.save(user);
+        // Đổi mật khẩu/thông tin tài khoản: thu hồi các JWT đã cấp
+        tokenVersionRegistry.bump(user.getUsername());
+        userIdentityCache.invalidateAfterCommit(user.getUsername());
+    }
+    
+    /**
+     * Tham chiếu tới user theo id mà không truy vấn database (dùng để gán khóa ngoại)
+     */
+    public User getReference(Long id) {
+        return userRepository.getReferenceById(id);
     }
     
     /**
@@ -0,0 +1,208 @@
+package nhom2.NguyenTanSang.services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.dtos.SePayWebhookDto;
+import nhom2.NguyenTanSang.entities.Invoice;
+import nhom2.NguyenTanSang.entities.WebhookJournalEntry;
+import nhom2.NguyenTanSang.repositories.IInvoiceRepository;
+import nhom2.NguyenTanSang.repositories.IWebhookJournalRepository;
+import nhom2.NguyenTanSang.utils.AfterCommit;
+import nhom2.NguyenTanSang.utils.TransferContentParser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tiếp nhận webhook SePay qua nhật ký (webhook_journal)
+ * - append: ghi ngay payload vào nhật ký rồi trả lời SePay, trùng mã giao dịch thì bỏ qua
+ * - Xử lý bất đồng bộ theo lô trên một thread riêng (kích hoạt sau khi ghi và định kỳ)
+ * - Lỗi khi xử lý: thử lại tối đa webhook.journal.max-attempts lần, thời gian chờ tăng gấp đôi mỗi lần
+ * - replayFrom: xử lý lại từ một offset (id) khi cần khôi phục; xác nhận thanh toán là idempotent
+ */
+@Service
+@Slf4j
+public class WebhookJournalService {
+    private final IWebhookJournalRepository journalRepository;
+    private final IInvoiceRepository invoiceRepository;
+    private final InvoiceService invoiceService;
+    private final TransferContentParser transferContentParser;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final ExecutorService processor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webhook-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Kết quả xử lý một webhook
+     */
+    private record Outcome(String status, String message) {
+    }
+
+    public WebhookJournalService(IWebhookJournalRepository journalRepository,
+                                 IInvoiceRepository invoiceRepository,
+                                 InvoiceService invoiceService,
+                                 TransferContentParser transferContentParser,
+                                 @Value("${webhook.journal.batch-size:50}") int batchSize,
+                                 @Value("${webhook.journal.max-attempts:5}") int maxAttempts,
+                                 @Value("${webhook.journal.retry-backoff-ms:30000}") long retryBackoffMs) {
+        this.journalRepository = journalRepository;
+        this.invoiceRepository = invoiceRepository;
+        this.invoiceService = invoiceService;
+        this.transferContentParser = transferContentParser;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    /**
+     * Ghi webhook vào nhật ký; trả về false nếu là lần gửi lại của giao dịch đã ghi
+     * Webhook không có cả mã giao dịch lẫn id thì không chống trùng được nên bị từ chối
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
+    public boolean append(SePayWebhookDto webhook) {
+        String code = dedupeCode(webhook);
+        if (code == null) {
+            throw new IllegalArgumentException("Webhook has neither transaction code nor id");
+        }
+        int inserted = journalRepository.append(
+                code,
+                webhook.getId(),
+                webhook.getGateway(),
+                webhook.getTransactionDate(),
+                webhook.getAccountNumber(),
+                webhook.getAmountIn(),
+                webhook.getAmountOut(),
+                truncate(webhook.getContent(), 1000),
+                webhook.getReferenceNumber(),
+                new Date());
+        if (inserted > 0) {
+            AfterCommit.run(this::triggerProcessing);
+        }
+        return inserted > 0;
+    }
+
+    /**
+     * Đưa các webhook từ offset trở đi về trạng thái chờ và xử lý lại
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED,
+            rollbackFor = {Exception.class, Throwable.class})
+    public int replayFrom(long fromId) {
+        int reset = journalRepository.resetFrom(fromId);
+        log.info("Replaying {} webhook journal entries from offset {}", reset, fromId);
+        AfterCommit.run(this::triggerProcessing);
+        return reset;
+    }
+
+    /**
+     * Quét định kỳ: xử lý các webhook còn chờ (ví dụ sau khi khởi động lại) và thử lại webhook lỗi đã tới hạn
+     */
+    @Scheduled(fixedDelayString = "${webhook.journal.poll-interval-ms:5000}")
+    public void triggerProcessing() {
+        processor.execute(this::drain);
+    }
+
+    // Chạy trên thread "webhook-journal": xử lý từng lô cho tới khi hết webhook chờ
+    private void drain() {
+        List<WebhookJournalEntry> batch;
+        do {
+            batch = journalRepository.findDue(new Date(), PageRequest.of(0, batchSize));
+            for (WebhookJournalEntry entry : batch) {
+                Outcome outcome;
+                Date nextAttemptAt = null;
+                try {
+                    outcome = process(entry);
+                } catch (Exception e) {
+                    outcome = new Outcome(WebhookJournalEntry.FAILED, truncate(e.getMessage(), 255));
+                    nextAttemptAt = nextAttemptAt(entry.getAttempts() + 1);
+                    if (nextAttemptAt != null) {
+                        log.warn("⚠️ Error processing webhook journal entry #{} (attempt {}), retrying at {}",
+                                entry.getId(), entry.getAttempts() + 1, nextAttemptAt, e);
+                    } else {
+                        log.error("❌ Giving up on webhook journal entry #{} after {} attempts",
+                                entry.getId(), entry.getAttempts() + 1, e);
+                    }
+                }
+                journalRepository.markDone(entry.getId(), outcome.status(), outcome.message(), new Date(), nextAttemptAt);
+            }
+        } while (batch.size() == batchSize);
+    }
+
+    // Lùi thời gian thử lại theo cấp số nhân (backoff, 2x, 4x...); hết số lần thử thì trả về null
+    private Date nextAttemptAt(int attempts) {
+        if (attempts >= maxAttempts) {
+            return null;
+        }
+        long delay = retryBackoffMs << Math.min(attempts - 1, 20);
+        return new Date(System.currentTimeMillis() + delay);
+    }
+
+    private Outcome process(WebhookJournalEntry entry) {
+        Long amount = entry.getAmountIn() != null && entry.getAmountIn() > 0 ? entry.getAmountIn() : entry.getAmountOut();
+        if (amount == null || amount <= 0) {
+            log.warn("⚠️ Invalid webhook #{}: amount is null or zero", entry.getId());
+            return new Outcome(WebhookJournalEntry.IGNORED, "Invalid amount");
+        }
+        String content = entry.getContent();
+        if (content == null || content.trim().isEmpty()) {
+            log.warn("⚠️ Invalid webhook #{}: content is empty", entry.getId());
+            return new Outcome(WebhookJournalEntry.IGNORED, "Invalid content");
+        }
+
+        // Extract invoice ID from content: "ORDER_123" -> 123
+        Long invoiceId = transferContentParser.parseInvoiceId(content);
+        if (invoiceId == null) {
+            log.warn("⚠️ Cannot extract invoice ID from content: {}", content);
+            return new Outcome(WebhookJournalEntry.IGNORED, "Invoice ID not found in content");
+        }
+
+        Invoice invoice = invoiceRepository.findById(invoiceId).orElse(null);
+        if (invoice == null) {
+            log.warn("⚠️ Invoice #{} not found", invoiceId);
+            return new Outcome(WebhookJournalEntry.IGNORED, "Invoice not found");
+        }
+        if ("PAID".equals(invoice.getPaymentStatus())) {
+            return new Outcome(WebhookJournalEntry.PROCESSED, "Invoice already paid");
+        }
+        if (amount < invoice.getPrice().longValue()) {
+            log.warn("⚠️ Amount mismatch: received {} but invoice requires {}", amount, invoice.getPrice());
+            return new Outcome(WebhookJournalEntry.IGNORED, "Amount mismatch");
+        }
+
+        // Update invoice status (và bảng tổng hợp doanh số) qua service
+        if (!invoiceService.confirmPayment(invoiceId, entry.getCode())) {
+            return new Outcome(WebhookJournalEntry.PROCESSED, "Invoice already paid");
+        }
+        log.info("✅ Payment confirmed for invoice #{} via webhook. Transaction: {}", invoiceId, entry.getCode());
+        return new Outcome(WebhookJournalEntry.PROCESSED, "Payment confirmed for invoice #" + invoiceId);
+    }
+    
+    // Mã giao dịch SePay; thiếu code thì dùng id giao dịch của SePay để vẫn chống trùng
+    private static String dedupeCode(SePayWebhookDto webhook) {
+        if (webhook.getCode() != null && !webhook.getCode().isBlank()) {
+            return truncate(webhook.getCode().trim(), 100);
+        }
+        return webhook.getId() != null ? "SEPAY-" + webhook.getId() : null;
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value == null || value.length() <= maxLength ? value : value.substring(0, maxLength);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        processor.shutdown();
+    }
+}
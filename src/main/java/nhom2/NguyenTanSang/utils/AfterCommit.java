@@ -0,0 +1,28 @@
+package nhom2.NguyenTanSang.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Chạy tác vụ phụ (cập nhật cache/chỉ mục, đẩy sự kiện) sau khi transaction hiện tại commit
+ * - Transaction rollback thì tác vụ bị bỏ qua
+ * - Không có transaction thì chạy ngay
+ */
+public final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    public static void run(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nhom2.NguyenTanSang.utils;
+
+import nhom2.NguyenTanSang.config.RateLimitConfig;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token bucket trong bộ nhớ
+ * - Mỗi bucket cập nhật bằng compare-and-set (không khóa)
+ * - Số bucket bị giới hạn (LRU): key ít dùng nhất bị loại trước
+ */
+@Component
+public class InMemoryRateLimitStore implements RateLimitStore {
+    private final Map<String, TokenBucket> buckets;
+
+    public InMemoryRateLimitStore(RateLimitConfig config) {
+        int maxBuckets = config.getMaxBuckets();
+        this.buckets = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                return size() > maxBuckets;
+            }
+        };
+    }
+
+    @Override
+    public long tryConsume(String key, RateLimitConfig.Route route) {
+        TokenBucket bucket;
+        synchronized (buckets) {
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(route.getCapacity(), System.nanoTime()));
+        }
+        return bucket.tryConsume(route.getCapacity(), route.getRefillPerMinute(), System.nanoTime());
+    }
+
+    private static final class TokenBucket {
+        private record State(double tokens, long refilledAtNanos) {
+        }
+
+        private final AtomicReference<State> state;
+
+        TokenBucket(int capacity, long nowNanos) {
+            this.state = new AtomicReference<>(new State(capacity, nowNanos));
+        }
+
+        long tryConsume(int capacity, int refillPerMinute, long nowNanos) {
+            double tokensPerNano = refillPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            while (true) {
+                State current = state.get();
+                double tokens = Math.min(capacity,
+                        current.tokens() + Math.max(0, nowNanos - current.refilledAtNanos()) * tokensPerNano);
+                if (tokens < 1) {
+                    if (tokensPerNano <= 0) {
+                        return TimeUnit.MINUTES.toSeconds(1);
+                    }
+                    long waitNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+                    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+                }
+                if (state.compareAndSet(current, new State(tokens - 1, nowNanos))) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
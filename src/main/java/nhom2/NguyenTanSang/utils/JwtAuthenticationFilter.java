@@ -1,25 +1,30 @@
 package nhom2.NguyenTanSang.utils;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import nhom2.NguyenTanSang.services.UserService;
+import nhom2.NguyenTanSang.services.UserIdentityCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * JWT Authentication Filter
  * Intercepts every HTTP request to validate JWT token
+ * - Stateless mode (default): authentication is built from the signed claims, no user lookup
+ * - jwt.stateless-auth=false: check the user against the cached identity (id, roles, enabled flag)
  */
 @Component
 @RequiredArgsConstructor
@@ -27,7 +32,11 @@ import java.io.IOException;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtUtil jwtUtil;
-    private final UserService userService;
+    private final UserIdentityCache userIdentityCache;
+    private final SecurityRoutes securityRoutes;
+
+    @Value("${jwt.stateless-auth:true}")
+    private boolean statelessAuth;
 
     @Override
     protected void doFilterInternal(
@@ -36,9 +45,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             @NonNull FilterChain filterChain
     ) throws ServletException, IOException {
         
-        // Skip JWT validation for public endpoints
-        String path = request.getRequestURI();
-        if (isPublicEndpoint(path)) {
+        // Skip JWT validation for public endpoints and static assets (shared route table)
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (securityRoutes.skipsJwt(path)) {
             filterChain.doFilter(request, response);
             return;
         }
@@ -56,19 +65,24 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         try {
             // Extract JWT token from header
             jwt = authHeader.substring(7);
+            if (statelessAuth) {
+                authenticateFromClaims(jwt, request);
+                filterChain.doFilter(request, response);
+                return;
+            }
             username = jwtUtil.extractUsername(jwt);
 
             // If username is extracted and user is not authenticated yet
             if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                UserDetails userDetails = userService.loadUserByUsername(username);
+                UserIdentityCache.UserIdentity identity = userIdentityCache.find(username).orElse(null);
 
                 // Validate token
-                if (jwtUtil.validateToken(jwt, userDetails)) {
+                if (identity != null && identity.enabled() && jwtUtil.validateToken(jwt)) {
                     // Create authentication token
                     UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                            userDetails,
+                            username,
                             null,
-                            userDetails.getAuthorities()
+                            identity.roles().stream().map(SimpleGrantedAuthority::new).toList()
                     );
                     authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                     
@@ -85,18 +99,25 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Check if endpoint is public (doesn't require authentication)
+     * Authenticate from the token claims only: signature, expiry, roles and token version
      */
-    private boolean isPublicEndpoint(String path) {
-        return path.startsWith("/api/auth/") ||
-               path.startsWith("/api/webhooks/") || // ⭐ Skip JWT for webhooks
-               path.startsWith("/css/") ||
-               path.startsWith("/js/") ||
-               path.startsWith("/images/") ||
-               path.equals("/") ||
-               path.equals("/login") ||
-               path.equals("/register") ||
-               path.startsWith("/error") ||
-               path.startsWith("/oauth2/");
+    private void authenticateFromClaims(String jwt, HttpServletRequest request) {
+        if (SecurityContextHolder.getContext().getAuthentication() != null) {
+            return;
+        }
+        Claims claims = jwtUtil.parseClaims(jwt);
+        String username = claims.getSubject();
+        if (username == null || !jwtUtil.isCurrentAccessToken(claims)) {
+            log.debug("Rejected revoked or non-access JWT for user: {}", username);
+            return;
+        }
+        List<SimpleGrantedAuthority> authorities = jwtUtil.extractRoles(claims).stream()
+                .map(SimpleGrantedAuthority::new)
+                .toList();
+        UsernamePasswordAuthenticationToken authToken =
+                new UsernamePasswordAuthenticationToken(username, null, authorities);
+        authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        SecurityContextHolder.getContext().setAuthentication(authToken);
+        log.debug("Stateless JWT authentication successful for user: {}", username);
     }
 }
@@ -1,9 +1,12 @@
 package nhom2.NguyenTanSang.utils;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.GrantedAuthority;
@@ -13,6 +16,8 @@ import org.springframework.stereotype.Component;
 import javax.crypto.SecretKey;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -22,10 +27,17 @@ import java.util.stream.Collectors;
  * - Generate JWT tokens
  * - Validate JWT tokens
  * - Extract claims from JWT
+ * - Signing key and parser are built once; verified claims are cached until the token expires
  */
 @Component
 @Slf4j
+@RequiredArgsConstructor
 public class JwtUtil {
+    static final String ROLES_CLAIM = "roles";
+    static final String VERSION_CLAIM = "ver";
+    public static final String FAMILY_CLAIM = "fam";
+
+    private final TokenVersionRegistry tokenVersionRegistry;
 
     @Value("${jwt.secret:404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970}")
     private String secret;
@@ -36,12 +48,43 @@ public class JwtUtil {
     @Value("${jwt.refresh-expiration:604800000}") // 7 days in milliseconds
     private Long refreshExpiration;
 
+    @Value("${jwt.claims-cache-size:10000}")
+    private int claimsCacheSize;
+
+    private SecretKey signingKey;
+    private JwtParser parser;
+
     /**
-     * Generate secret key from base64 encoded string
+     * Verified claims, keyed by the token's signature segment.
+     * The full token is kept so a forged token reusing a signature never hits the cache.
+     * Bounded LRU: once full, the least recently used token is dropped on insert (O(1)).
+     * Expired entries are dropped when looked up or when they age out of the LRU order.
+     * Guarded by its own monitor.
      */
-    private SecretKey getSigningKey() {
+    private final Map<String, CachedClaims> claimsCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedClaims> eldest) {
+            return size() > claimsCacheSize;
+        }
+    };
+
+    private record CachedClaims(String token, Claims claims, long expiresAtMillis) {
+    }
+
+    /**
+     * Decode the base64 secret and build the parser once at startup
+     */
+    @PostConstruct
+    void init() {
         byte[] keyBytes = Decoders.BASE64.decode(secret);
-        return Keys.hmacShaKeyFor(keyBytes);
+        signingKey = Keys.hmacShaKeyFor(keyBytes);
+        parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
+    }
+
+    private SecretKey getSigningKey() {
+        return signingKey;
     }
 
     /**
@@ -66,15 +109,67 @@ public class JwtUtil {
         return claimsResolver.apply(claims);
     }
 
+    /**
+     * Verify the token and return its claims (throws if invalid or expired)
+     */
+    public Claims parseClaims(String token) {
+        return extractAllClaims(token);
+    }
+
+    /**
+     * Roles of an access token; empty for refresh tokens
+     */
+    public List<String> extractRoles(Claims claims) {
+        List<?> roles = claims.get(ROLES_CLAIM, List.class);
+        if (roles == null) {
+            return List.of();
+        }
+        return roles.stream().map(String::valueOf).toList();
+    }
+
+    /**
+     * Access token whose version has not been revoked by {@link TokenVersionRegistry#bump}
+     */
+    public boolean isCurrentAccessToken(Claims claims) {
+        Integer version = claims.get(VERSION_CLAIM, Integer.class);
+        return claims.containsKey(ROLES_CLAIM)
+                && version != null
+                && tokenVersionRegistry.isCurrent(claims.getSubject(), version);
+    }
+
     /**
      * Extract all claims from JWT token
+     * - Served from the cache when this exact token was verified before and has not expired
      */
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        String cacheKey = signatureOf(token);
+        long now = System.currentTimeMillis();
+        if (cacheKey != null) {
+            synchronized (claimsCache) {
+                CachedClaims cached = claimsCache.get(cacheKey);
+                if (cached != null) {
+                    if (cached.expiresAtMillis() > now && cached.token().equals(token)) {
+                        return cached.claims();
+                    }
+                    claimsCache.remove(cacheKey);
+                }
+            }
+        }
+
+        // Verify outside the lock; two concurrent misses on one token at worst parse it twice
+        Claims claims = parser.parseSignedClaims(token).getPayload();
+        Date exp = claims.getExpiration();
+        if (exp != null && cacheKey != null) {
+            synchronized (claimsCache) {
+                claimsCache.put(cacheKey, new CachedClaims(token, claims, exp.getTime()));
+            }
+        }
+        return claims;
+    }
+
+    private static String signatureOf(String token) {
+        int dot = token.lastIndexOf('.');
+        return dot >= 0 && dot < token.length() - 1 ? token.substring(dot + 1) : null;
     }
 
     /**
@@ -90,18 +185,26 @@ public class JwtUtil {
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
         // Add roles to claims
-        claims.put("roles", userDetails.getAuthorities().stream()
+        claims.put(ROLES_CLAIM, userDetails.getAuthorities().stream()
                 .map(GrantedAuthority::getAuthority)
                 .collect(Collectors.toList()));
+        claims.put(VERSION_CLAIM, tokenVersionRegistry.currentVersion(userDetails.getUsername()).orElse(0));
         return createToken(claims, userDetails.getUsername(), expiration);
     }
 
     /**
      * Generate refresh token for user
+     * - tokenId (jti) and familyId let RefreshTokenService rotate and revoke it
      */
-    public String generateRefreshToken(UserDetails userDetails) {
+    public String generateRefreshToken(String username, String tokenId, String familyId) {
         Map<String, Object> claims = new HashMap<>();
-        return createToken(claims, userDetails.getUsername(), refreshExpiration);
+        claims.put(Claims.ID, tokenId);
+        claims.put(FAMILY_CLAIM, familyId);
+        return createToken(claims, username, refreshExpiration);
+    }
+
+    public long getRefreshExpirationMillis() {
+        return refreshExpiration;
     }
 
     /**
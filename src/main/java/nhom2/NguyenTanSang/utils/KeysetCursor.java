@@ -0,0 +1,35 @@
+package nhom2.NguyenTanSang.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Con trỏ phân trang keyset dạng chuỗi mờ (opaque) cho client
+ * Mã hóa: thuộc tính sắp xếp, chiều, id và giá trị khóa sắp xếp của phần tử cuối trang
+ */
+public record KeysetCursor(String sortBy, boolean descending, Long id, String sortValue) {
+    private static final String SEPARATOR = "\n";
+
+    public String encode() {
+        String raw = sortBy + SEPARATOR + (descending ? "d" : "a") + SEPARATOR + id + SEPARATOR
+                + (sortValue == null ? "" : sortValue);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Giải mã con trỏ; ném IllegalArgumentException nếu con trỏ không hợp lệ
+     */
+    public static KeysetCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(SEPARATOR, 4);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new KeysetCursor(parts[0], "d".equals(parts[1]), Long.parseLong(parts[2]), parts[3]);
+        } catch (IllegalArgumentException e) {
+            // Bao gồm cả NumberFormatException và lỗi Base64
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package nhom2.NguyenTanSang.utils;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nhom2.NguyenTanSang.config.RateLimitConfig;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rate Limit Filter
+ * Throttles auth and webhook endpoints before Spring Security runs (no BCrypt, no DB work)
+ * - One token bucket per client IP and, for login, one per submitted username
+ * - Client IP is read from X-Forwarded-For only through rate-limit.trusted-proxy-hops trusted proxies
+ * - Over the limit: 429 Too Many Requests with Retry-After
+ * - Routes and limits come from {@link RateLimitConfig}; bucket state lives in a {@link RateLimitStore}
+ */
+@Component
+@Order(-110) // Before the Spring Security filter chain (-100)
+@RequiredArgsConstructor
+@Slf4j
+public class RateLimitFilter extends OncePerRequestFilter {
+    private static final int MAX_BODY_BYTES = 8 * 1024;
+    private static final Pattern JSON_USERNAME = Pattern.compile("\"username\"\\s*:\\s*\"([^\"]{1,100})\"");
+
+    private final RateLimitConfig config;
+    private final RateLimitStore store;
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !config.isEnabled() || findRoute(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain
+    ) throws ServletException, IOException {
+        RateLimitConfig.Route route = findRoute(request);
+        HttpServletRequest effectiveRequest = request;
+
+        String clientIp = clientIp(request);
+        long retryAfter = 0;
+        if (route.isByIp()) {
+            retryAfter = store.tryConsume("ip:" + route.getPath() + ":" + clientIp, route);
+        }
+        if (retryAfter == 0 && route.isByUsername()) {
+            String username;
+            if (isJson(request)) {
+                CachedBodyRequest cached = new CachedBodyRequest(request);
+                effectiveRequest = cached;
+                username = cached.extractJsonUsername();
+            } else {
+                username = request.getParameter("username");
+            }
+            if (username != null && !username.isBlank()) {
+                retryAfter = store.tryConsume("user:" + route.getPath() + ":" + username.trim().toLowerCase(), route);
+            }
+        }
+
+        if (retryAfter > 0) {
+            log.warn("Rate limit exceeded: {} {} from {}", request.getMethod(), route.getPath(), clientIp);
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write("{\"error\":\"Too many requests, retry after " + retryAfter + " seconds\"}");
+            return;
+        }
+        filterChain.doFilter(effectiveRequest, response);
+    }
+
+    /**
+     * Client IP behind rate-limit.trusted-proxy-hops trusted proxies
+     * Each proxy appends the address it received the request from, so only the last N entries are trustworthy;
+     * if the header is shorter than that, fall back to the TCP peer address
+     */
+    private String clientIp(HttpServletRequest request) {
+        int hops = config.getTrustedProxyHops();
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (hops <= 0 || forwardedFor == null || forwardedFor.isBlank()) {
+            return request.getRemoteAddr();
+        }
+        String[] chain = forwardedFor.split(",");
+        int index = chain.length - hops;
+        if (index < 0) {
+            return request.getRemoteAddr();
+        }
+        String ip = chain[index].trim();
+        return ip.isEmpty() ? request.getRemoteAddr() : ip;
+    }
+
+    private RateLimitConfig.Route findRoute(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (RateLimitConfig.Route route : config.getRoutes()) {
+            if (route.getPath().equals(path) && route.getMethod().equalsIgnoreCase(request.getMethod())) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isJson(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().startsWith(MediaType.APPLICATION_JSON_VALUE);
+    }
+
+    /**
+     * Reads a small JSON body once so the username can be inspected and the controller still gets the body
+     * - Blocking and non-blocking (ReadListener) readers both work: a fully buffered body is delivered at once,
+     *   a longer one drains the buffer and then continues on the original stream
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+        private ServletInputStream stream;
+
+        CachedBodyRequest(HttpServletRequest request) throws IOException {
+            super(request);
+            this.body = request.getInputStream().readNBytes(MAX_BODY_BYTES + 1);
+        }
+
+        String extractJsonUsername() {
+            if (body.length > MAX_BODY_BYTES) {
+                return null;
+            }
+            Matcher matcher = JSON_USERNAME.matcher(new String(body, StandardCharsets.UTF_8));
+            return matcher.find() ? matcher.group(1) : null;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (stream != null) {
+                return stream;
+            }
+            ServletInputStream original = super.getInputStream();
+            ByteArrayInputStream buffered = new ByteArrayInputStream(body);
+            // Short read means the whole body is already buffered and the original stream is at its end
+            boolean fullyBuffered = body.length <= MAX_BODY_BYTES;
+            stream = new ServletInputStream() {
+                private boolean nonBlocking;
+
+                @Override
+                public int read() throws IOException {
+                    int b = buffered.read();
+                    // Larger than the inspection limit: continue with the rest of the original stream
+                    return b >= 0 || fullyBuffered ? b : original.read();
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    int n = buffered.read(bytes, offset, length);
+                    return n >= 0 || fullyBuffered ? n : original.read(bytes, offset, length);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return buffered.available() == 0 && (fullyBuffered || original.isFinished());
+                }
+
+                @Override
+                public boolean isReady() {
+                    // The original stream only answers isReady() once a listener is registered on it
+                    return buffered.available() > 0 || fullyBuffered || !nonBlocking || original.isReady();
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    nonBlocking = true;
+                    if (!fullyBuffered) {
+                        // The container calls back as the remainder arrives; reads drain the buffer first
+                        original.setReadListener(listener);
+                        return;
+                    }
+                    // Everything is in memory: the data is available now and nothing more will come
+                    try {
+                        listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException e) {
+                        listener.onError(e);
+                    }
+                }
+            };
+            return stream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+    }
+}
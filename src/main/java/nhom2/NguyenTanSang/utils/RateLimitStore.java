@@ -0,0 +1,18 @@
+package nhom2.NguyenTanSang.utils;
+
+import nhom2.NguyenTanSang.config.RateLimitConfig;
+
+/**
+ * Nơi lưu trạng thái token bucket cho RateLimitFilter
+ * - Mặc định: {@link InMemoryRateLimitStore} trong tiến trình
+ * - Có thể thay bằng store dùng chung (Redis, ...) khi chạy nhiều instance
+ */
+public interface RateLimitStore {
+
+    /**
+     * Lấy 1 token từ bucket của key
+     *
+     * @return 0 nếu được phép, ngược lại số giây cần chờ trước khi thử lại
+     */
+    long tryConsume(String key, RateLimitConfig.Route route);
+}
@@ -11,9 +11,9 @@ import org.springframework.security.config.annotation.authentication.configurati
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
@@ -26,17 +26,14 @@ public class SecurityConfig {
     private final OAuthService oAuthService;
     private final UserService userService;
     private final JwtAuthenticationFilter jwtAuthenticationFilter;
+    private final PasswordEncoder passwordEncoder;
+    private final SecurityRoutes securityRoutes;
     
     @Bean
     public UserDetailsService userDetailsService() {
         return userService;
     }
     
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
-    }
-    
     @Bean
     public AuthenticationManager authenticationManager(AuthenticationConfiguration config) throws Exception {
         return config.getAuthenticationManager();
@@ -45,9 +42,17 @@ public class SecurityConfig {
     @Bean
     public DaoAuthenticationProvider authenticationProvider() {
         var auth = new DaoAuthenticationProvider(userService);
-        auth.setPasswordEncoder(passwordEncoder());
+        auth.setPasswordEncoder(passwordEncoder);
         return auth;
     }
+    /**
+     * Static assets skip the whole security filter chain
+     */
+    @Bean
+    public WebSecurityCustomizer webSecurityCustomizer() {
+        return web -> web.ignoring().requestMatchers(securityRoutes.staticPatterns());
+    }
+    
     @Bean
     public SecurityFilterChain securityFilterChain(@NotNull HttpSecurity http) throws Exception {
         return http
@@ -58,31 +63,9 @@ public class SecurityConfig {
                 )
                 
                 // Configure authorization
-                .authorizeHttpRequests(auth -> auth
-                        // Public endpoints
-                        .requestMatchers("/api/auth/**").permitAll()
-                        .requestMatchers("/api/webhooks/**").permitAll() // ⭐ Allow webhooks without authentication
-                        .requestMatchers("/api/v1/books").permitAll() // Public cho test
-                        .requestMatchers("/css/**", "/js/**", "/images/**").permitAll()
-                        .requestMatchers("/", "/login", "/register", "/error").permitAll()
-                        .requestMatchers("/oauth2/**").permitAll()
-                        
-                        // Admin only endpoints
-                        .requestMatchers("/admin/**").hasAnyAuthority("ADMIN")
-                        .requestMatchers("/books/edit/**", "/books/add", "/books/delete").hasAnyAuthority("ADMIN")
-                        .requestMatchers("/api/admin/**").hasAnyAuthority("ADMIN")
-                        
-                        // User and Admin endpoints - Web UI
-                        .requestMatchers("/books", "/cart/**", "/wishlist/**").hasAnyAuthority("ADMIN", "USER")
-                        
-                        // API v1 endpoints - Require JWT authentication
-                        .requestMatchers("/api/v1/**").hasAnyAuthority("ADMIN", "USER")
-                        
-                        // All other API endpoints
-                        .requestMatchers("/api/**").hasAnyAuthority("ADMIN", "USER")
-                        
-                        // All other requests require authentication
-                        .anyRequest().authenticated()
+                .authorizeHttpRequests(
+                        // Rules come from the shared route table (also used by JwtAuthenticationFilter)
+                        securityRoutes::applyTo
                 )
                 
                 // Configure session management
@@ -0,0 +1,175 @@
+package nhom2.NguyenTanSang.utils;
+
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AuthorizeHttpRequestsConfigurer;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single route table for URL-level security
+ * - Compiled once into a path-segment trie: lookup walks the path once, longest match wins
+ *   (exact pattern before "/**" prefix, deeper prefix before shallower)
+ * - JwtAuthenticationFilter skips JWT parsing for PUBLIC and STATIC routes
+ * - SecurityConfig registers the same rules with Spring Security, most specific first,
+ *   so Spring's first-match order gives the same answer as the trie
+ * - STATIC routes bypass the security filter chain entirely
+ */
+@Component
+public class SecurityRoutes {
+
+    public enum Access {
+        /** Static assets: no security filters at all */
+        STATIC,
+        /** Anyone, JWT is not parsed */
+        PUBLIC,
+        /** ADMIN only */
+        ADMIN,
+        /** ADMIN or USER */
+        USER,
+        /** Any authenticated principal (default for unlisted paths) */
+        AUTHENTICATED
+    }
+
+    /**
+     * pattern is either an exact path ("/login") or a prefix ending in "/**" ("/admin/**")
+     */
+    public record Rule(String pattern, Access access) {
+        boolean isPrefix() {
+            return pattern.endsWith("/**");
+        }
+
+        String basePath() {
+            return isPrefix() ? pattern.substring(0, pattern.length() - 3) : pattern;
+        }
+    }
+
+    private static final List<Rule> RULES = List.of(
+            new Rule("/css/**", Access.STATIC),
+            new Rule("/js/**", Access.STATIC),
+            new Rule("/images/**", Access.STATIC),
+
+            new Rule("/", Access.PUBLIC),
+            new Rule("/login", Access.PUBLIC),
+            new Rule("/register", Access.PUBLIC),
+            new Rule("/error/**", Access.PUBLIC),
+            new Rule("/oauth2/**", Access.PUBLIC),
+            new Rule("/api/auth/**", Access.PUBLIC),
+            new Rule("/api/webhooks/**", Access.PUBLIC),
+            new Rule("/api/v1/books", Access.PUBLIC),
+            new Rule("/api/v1/books/suggest", Access.PUBLIC),
+
+            new Rule("/admin/**", Access.ADMIN),
+            new Rule("/api/admin/**", Access.ADMIN),
+            new Rule("/books/edit/**", Access.ADMIN),
+            new Rule("/books/add", Access.ADMIN),
+            new Rule("/books/delete", Access.ADMIN),
+
+            new Rule("/books", Access.USER),
+            new Rule("/cart/**", Access.USER),
+            new Rule("/wishlist/**", Access.USER),
+            new Rule("/api/**", Access.USER)
+    );
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private Rule exact;
+        private Rule prefix;
+    }
+
+    private final Node root = new Node();
+
+    public SecurityRoutes() {
+        for (Rule rule : RULES) {
+            Node node = root;
+            for (String segment : segments(rule.basePath())) {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+            if (rule.isPrefix()) {
+                node.prefix = rule;
+            } else {
+                node.exact = rule;
+            }
+        }
+    }
+
+    /**
+     * Access level of a request path
+     */
+    public Access accessFor(String path) {
+        Node node = root;
+        Rule best = root.prefix;
+        int start = 1;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    return best != null ? best.access() : Access.AUTHENTICATED;
+                }
+                if (node.prefix != null) {
+                    best = node.prefix;
+                }
+            }
+            start = end + 1;
+        }
+        if (node.exact != null) {
+            return node.exact.access();
+        }
+        return best != null ? best.access() : Access.AUTHENTICATED;
+    }
+
+    /**
+     * JWT parsing is not needed for public pages and static assets
+     */
+    public boolean skipsJwt(String path) {
+        Access access = accessFor(path);
+        return access == Access.PUBLIC || access == Access.STATIC;
+    }
+
+    /**
+     * Patterns of STATIC routes (for WebSecurity.ignoring)
+     */
+    public String[] staticPatterns() {
+        return RULES.stream()
+                .filter(rule -> rule.access() == Access.STATIC)
+                .map(Rule::pattern)
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Register every non-static rule, most specific first, then default to authenticated
+     */
+    public void applyTo(AuthorizeHttpRequestsConfigurer<HttpSecurity>.AuthorizationManagerRequestMatcherRegistry auth) {
+        RULES.stream()
+                .filter(rule -> rule.access() != Access.STATIC)
+                .sorted(SPECIFICITY)
+                .forEach(rule -> {
+                    var matcher = auth.requestMatchers(rule.pattern());
+                    switch (rule.access()) {
+                        case PUBLIC -> matcher.permitAll();
+                        case ADMIN -> matcher.hasAnyAuthority("ADMIN");
+                        case USER -> matcher.hasAnyAuthority("ADMIN", "USER");
+                        default -> matcher.authenticated();
+                    }
+                });
+        auth.anyRequest().authenticated();
+    }
+
+    // Exact patterns first, then prefixes from deepest to shallowest
+    private static final Comparator<Rule> SPECIFICITY = Comparator
+            .comparing(Rule::isPrefix)
+            .thenComparing(rule -> -segments(rule.basePath()).length);
+
+    private static String[] segments(String path) {
+        String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+    }
+}
@@ -0,0 +1,93 @@
+package nhom2.NguyenTanSang.utils;
+
+import lombok.RequiredArgsConstructor;
+import nhom2.NguyenTanSang.repositories.IUserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Per-user token version used to revoke stateless JWTs
+ * - Every access token carries the version current at issue time ("ver" claim)
+ * - Bumping a user's version rejects all tokens issued before (role change, delete, password change)
+ * - Persisted in users.token_version and bumped in the caller's transaction, so revocations survive a restart
+ * - Read lazily into a bounded LRU cache; after the bumping transaction commits the new version is cached
+ * - Cached versions only move forward, and a value loaded while a bump committed is not cached,
+ *   so a slow reader can never put a revoked version back
+ * - Tokens of a user that no longer exists are never current
+ */
+@Component
+@RequiredArgsConstructor
+public class TokenVersionRegistry {
+    private final IUserRepository userRepository;
+
+    @Value("${jwt.token-version-cache-size:10000}")
+    private int cacheSize;
+
+    /**
+     * username -> version, least recently used dropped first (a miss just reads the database again).
+     * Guarded by its own monitor together with bumpsCommitted.
+     */
+    private final Map<String, Integer> versions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    // Number of committed bumps; a load that overlaps one is returned but not cached
+    private long bumpsCommitted;
+
+    /**
+     * Current version for the user, empty if the user does not exist
+     */
+    public Optional<Integer> currentVersion(String username) {
+        if (username == null) {
+            return Optional.empty();
+        }
+        long bumpsBefore;
+        synchronized (versions) {
+            Integer cached = versions.get(username);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+            bumpsBefore = bumpsCommitted;
+        }
+        Optional<Integer> loaded = userRepository.findTokenVersionByUsername(username);
+        loaded.ifPresent(version -> {
+            synchronized (versions) {
+                if (bumpsCommitted == bumpsBefore) {
+                    versions.merge(username, version, Math::max);
+                }
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Invalidate every token issued to the user so far
+     * Must run inside the transaction that changes the account
+     */
+    public void bump(String username) {
+        if (username == null) {
+            return;
+        }
+        userRepository.incrementTokenVersion(username);
+        Optional<Integer> bumped = userRepository.findTokenVersionByUsername(username);
+        // Publish only after commit: other transactions cannot see the new version before that
+        AfterCommit.run(() -> {
+            synchronized (versions) {
+                bumped.ifPresent(version -> versions.merge(username, version, Math::max));
+                bumpsCommitted++;
+            }
+        });
+    }
+
+    public boolean isCurrent(String username, int tokenVersion) {
+        return currentVersion(username)
+                .map(current -> tokenVersion >= current)
+                .orElse(false);
+    }
+}
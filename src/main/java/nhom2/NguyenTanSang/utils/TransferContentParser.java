@@ -0,0 +1,155 @@
+package nhom2.NguyenTanSang.utils;
+
+import nhom2.NguyenTanSang.config.SePayConfig;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tạo và đọc nội dung chuyển khoản chứa mã đơn hàng
+ * - Tiền tố cấu hình qua sepay.transfer.prefixes (mặc định ORDER, QLSACH, DH), không phân biệt hoa thường,
+ *   sau tiền tố có thể có "_" hoặc khoảng trắng: "ORDER_123", "order 123", "QLSACH123", "DH 456"
+ * - Quét nội dung một lần, không dùng regex; nhiều tiền tố cùng xuất hiện thì tiền tố đứng trước trong cấu hình thắng
+ * - Không còn đoán "số bất kỳ" trong nội dung: thiếu tiền tố thì không khớp đơn nào
+ * - sepay.transfer.checksum=true: mã tạo ra có thêm một chữ số Luhn sau dấu "-" ("ORDER_123" -> "ORDER_123-0"),
+ *   chữ số sai thì bỏ qua để tránh khớp nhầm khi khách gõ sai. Có dấu ngăn nên "ORDER_125" luôn là đơn 125
+ *   (QR tạo trước khi bật checksum), không bị đọc thành đơn 12 với chữ số kiểm tra 5
+ */
+@Component
+public class TransferContentParser {
+    /** Long có tối đa 19 chữ số; giới hạn 18 để không tràn khi cộng dồn */
+    private static final int MAX_DIGITS = 18;
+    private static final char CHECK_DIGIT_SEPARATOR = '-';
+
+    private final String[] prefixes;
+    private final boolean checksum;
+
+    public TransferContentParser(SePayConfig sePayConfig) {
+        this(sePayConfig.getTransfer().getPrefixes(), sePayConfig.getTransfer().isChecksum());
+    }
+
+    TransferContentParser(List<String> prefixes, boolean checksum) {
+        if (prefixes == null || prefixes.isEmpty()) {
+            throw new IllegalArgumentException("sepay.transfer.prefixes must not be empty");
+        }
+        this.prefixes = prefixes.stream()
+                .map(prefix -> prefix.trim().toUpperCase(Locale.ROOT))
+                .filter(prefix -> !prefix.isEmpty())
+                .toArray(String[]::new);
+        if (this.prefixes.length == 0) {
+            throw new IllegalArgumentException("sepay.transfer.prefixes must not be blank");
+        }
+        this.checksum = checksum;
+    }
+
+    /**
+     * Nội dung chuyển khoản cho đơn hàng: "ORDER_123" (hoặc "ORDER_123-0" khi bật checksum)
+     */
+    public String format(long invoiceId) {
+        if (invoiceId <= 0) {
+            throw new IllegalArgumentException("Invoice id must be positive: " + invoiceId);
+        }
+        String content = prefixes[0] + "_" + invoiceId;
+        return checksum ? content + CHECK_DIGIT_SEPARATOR + luhnDigit(invoiceId) : content;
+    }
+
+    /**
+     * Lấy mã đơn từ nội dung chuyển khoản ngân hàng gửi về
+     *
+     * @return mã đơn, hoặc null nếu không có tiền tố hợp lệ nào theo sau bởi chữ số
+     */
+    public Long parseInvoiceId(String content) {
+        if (content == null || content.isEmpty()) {
+            return null;
+        }
+        Long best = null;
+        int bestRank = prefixes.length;
+        int length = content.length();
+        for (int i = 0; i < length && bestRank > 0; i++) {
+            char c = Character.toUpperCase(content.charAt(i));
+            // chỉ xét các tiền tố ưu tiên hơn kết quả đang có
+            for (int rank = 0; rank < bestRank; rank++) {
+                String prefix = prefixes[rank];
+                if (prefix.charAt(0) != c || !content.regionMatches(true, i, prefix, 0, prefix.length())) {
+                    continue;
+                }
+                Long id = readId(content, i + prefix.length(), rank == 0 && checksum);
+                if (id != null) {
+                    best = id;
+                    bestRank = rank;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Đọc dãy số sau tiền tố (bỏ qua "_" và khoảng trắng); nếu cần, kiểm tra chữ số Luhn đứng sau
+     * dấu "-" hoặc một khoảng trắng (ngân hàng có thể đổi "-" thành khoảng trắng)
+     */
+    private Long readId(String content, int from, boolean withChecksum) {
+        int length = content.length();
+        int pos = from;
+        while (pos < length && (content.charAt(pos) == '_' || Character.isWhitespace(content.charAt(pos)))) {
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < length && isAsciiDigit(content.charAt(pos))) {
+            if (++digits > MAX_DIGITS) {
+                return null;
+            }
+            value = value * 10 + (content.charAt(pos) - '0');
+            pos++;
+        }
+        if (digits == 0) {
+            return null;
+        }
+        if (withChecksum && isCheckDigitGroup(content, pos)) {
+            if (luhnDigit(value) != content.charAt(pos + 1) - '0') {
+                return null;
+            }
+        }
+        return value > 0 ? value : null;
+    }
+
+    // Đúng một chữ số ngay sau dấu ngăn: "-0" trong "ORDER_123-0", không nhận "ORDER_123 500k"
+    private static boolean isCheckDigitGroup(String content, int pos) {
+        int length = content.length();
+        if (pos + 1 >= length) {
+            return false;
+        }
+        char separator = content.charAt(pos);
+        if (separator != CHECK_DIGIT_SEPARATOR && !Character.isWhitespace(separator)) {
+            return false;
+        }
+        return isAsciiDigit(content.charAt(pos + 1))
+                && (pos + 2 >= length || !Character.isLetterOrDigit(content.charAt(pos + 2)));
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Chữ số kiểm tra Luhn: phát hiện mọi lỗi gõ sai một chữ số và hầu hết lỗi đảo hai chữ số liền nhau
+     */
+    static int luhnDigit(long number) {
+        int sum = 0;
+        boolean doubleIt = true;
+        for (long n = number; n > 0; n /= 10) {
+            int digit = (int) (n % 10);
+            if (doubleIt) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubleIt = !doubleIt;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,128 @@
+package nhom2.NguyenTanSang.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tạo chuỗi dữ liệu VietQR (chuẩn EMVCo Merchant-Presented QR của Napas) cho chuyển khoản nhanh 24/7
+ * - Mỗi trường là TLV: mã 2 số + độ dài 2 số + giá trị
+ * - Kết thúc bằng CRC16-CCITT (trường 63) tính trên toàn bộ chuỗi kể cả "6304"
+ * - Ứng dụng ngân hàng quét mã sẽ tự điền ngân hàng, số tài khoản, số tiền và nội dung
+ */
+public final class VietQrPayload {
+    private static final String NAPAS_GUID = "A000000727";
+    // Dịch vụ chuyển nhanh Napas247 đến tài khoản
+    private static final String SERVICE_TO_ACCOUNT = "QRIBFTTA";
+    private static final String CURRENCY_VND = "704";
+    private static final String COUNTRY_VN = "VN";
+
+    // Mã BIN Napas của các ngân hàng thường dùng (bank code như trong sepay.bank.code)
+    private static final Map<String, String> BANK_BINS = Map.ofEntries(
+            Map.entry("VCB", "970436"),
+            Map.entry("TCB", "970407"),
+            Map.entry("TECHCOMBANK", "970407"),
+            Map.entry("MB", "970422"),
+            Map.entry("MBB", "970422"),
+            Map.entry("ACB", "970416"),
+            Map.entry("BIDV", "970418"),
+            Map.entry("VTB", "970415"),
+            Map.entry("VIETINBANK", "970415"),
+            Map.entry("AGRIBANK", "970405"),
+            Map.entry("ARB", "970405"),
+            Map.entry("SCB", "970429"),
+            Map.entry("STB", "970403"),
+            Map.entry("SACOMBANK", "970403"),
+            Map.entry("VPB", "970432"),
+            Map.entry("VPBANK", "970432"),
+            Map.entry("TPB", "970423"),
+            Map.entry("TPBANK", "970423"),
+            Map.entry("SHB", "970443"),
+            Map.entry("EIB", "970431"),
+            Map.entry("EXIMBANK", "970431"),
+            Map.entry("MSB", "970426"),
+            Map.entry("OCB", "970448"),
+            Map.entry("SEA", "970440"),
+            Map.entry("SEABANK", "970440"),
+            Map.entry("HDB", "970437"),
+            Map.entry("VIETBANK", "970433"),
+            Map.entry("VAB", "970427"),
+            Map.entry("NAB", "970428"),
+            Map.entry("PGB", "970430"),
+            Map.entry("ABB", "970425"),
+            Map.entry("NCB", "970419"),
+            Map.entry("KLB", "970452"),
+            Map.entry("LPB", "970449"),
+            Map.entry("BAB", "970409")
+    );
+
+    private VietQrPayload() {
+    }
+
+    /**
+     * Mã BIN Napas theo mã ngân hàng, null nếu không biết
+     */
+    public static String bankBin(String bankCode) {
+        return bankCode == null ? null : BANK_BINS.get(bankCode.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Chuỗi VietQR động (có số tiền) cho một lần chuyển khoản
+     *
+     * @param bankBin       mã BIN Napas 6 số của ngân hàng nhận
+     * @param accountNumber số tài khoản nhận
+     * @param amount        số tiền (VNĐ)
+     * @param content       nội dung chuyển khoản, ví dụ "ORDER_123"
+     */
+    public static String build(String bankBin, String accountNumber, long amount, String content) {
+        if (bankBin == null || !bankBin.matches("\\d{6}")) {
+            throw new IllegalArgumentException("Invalid Napas bank BIN: " + bankBin);
+        }
+        if (accountNumber == null || accountNumber.isBlank()) {
+            throw new IllegalArgumentException("Account number is required");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
+        }
+
+        String beneficiary = field("00", bankBin) + field("01", accountNumber.trim());
+        String merchantAccount = field("00", NAPAS_GUID)
+                + field("01", beneficiary)
+                + field("02", SERVICE_TO_ACCOUNT);
+
+        StringBuilder payload = new StringBuilder(128)
+                .append(field("00", "01"))       // Payload format indicator
+                .append(field("01", "12"))       // QR động: dùng một lần, có số tiền
+                .append(field("38", merchantAccount))
+                .append(field("53", CURRENCY_VND))
+                .append(field("54", Long.toString(amount)))
+                .append(field("58", COUNTRY_VN));
+        if (content != null && !content.isBlank()) {
+            payload.append(field("62", field("08", content.trim())));
+        }
+        payload.append("6304");
+        return payload.append(crc16(payload)).toString();
+    }
+
+    private static String field(String id, String value) {
+        int length = value.length();
+        if (length > 99) {
+            throw new IllegalArgumentException("VietQR field " + id + " is longer than 99 characters");
+        }
+        return id + (length < 10 ? "0" : "") + length + value;
+    }
+
+    /**
+     * CRC16-CCITT (đa thức 0x1021, giá trị đầu 0xFFFF), 4 ký tự hex in hoa
+     */
+    static String crc16(CharSequence data) {
+        int crc = 0xFFFF;
+        for (byte b : data.toString().getBytes(StandardCharsets.UTF_8)) {
+            crc ^= (b & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return String.format("%04X", crc & 0xFFFF);
+    }
+}
@@ -0,0 +1,13 @@
+package nhom2.NguyenTanSang.viewmodels;
+
+import lombok.Builder;
+
+import java.util.List;
+
+/**
+ * Một trang kết quả phân trang keyset
+ * nextCursor = null khi không còn trang sau
+ */
+@Builder
+public record CursorPageVm<T>(List<T> items, String nextCursor, boolean hasNext) {
+}
@@ -0,0 +1,9 @@
+package nhom2.NguyenTanSang.viewmodels;
+
+import org.springframework.data.domain.Page;
+
+/**
+ * Một trang kết quả tìm kiếm kèm số lượng theo facet của cùng truy vấn
+ */
+public record FacetedPageVm<T>(Page<T> page, SearchFacetsVm facets) {
+}
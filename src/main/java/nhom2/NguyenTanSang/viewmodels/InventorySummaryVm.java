@@ -0,0 +1,7 @@
+package nhom2.NguyenTanSang.viewmodels;
+
+/**
+ * Bộ đếm cho trang quản lý kho - tính bằng một truy vấn tổng hợp duy nhất
+ */
+public record InventorySummaryVm(Long totalBooks, Long outOfStockCount, Long lowStockCount) {
+}
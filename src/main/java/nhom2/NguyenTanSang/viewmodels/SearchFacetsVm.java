@@ -0,0 +1,22 @@
+package nhom2.NguyenTanSang.viewmodels;
+
+import lombok.Builder;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Số lượng kết quả theo từng facet cho bộ lọc tìm kiếm
+ * - categoryCounts: categoryId -> số sách (theo keyword + khoảng giá đang chọn)
+ * - priceBuckets: số sách theo khoảng giá (theo keyword + category đang chọn)
+ */
+@Builder
+public record SearchFacetsVm(Map<Long, Long> categoryCounts, List<PriceBucket> priceBuckets) {
+    public static final SearchFacetsVm EMPTY = new SearchFacetsVm(Map.of(), List.of());
+
+    /**
+     * Khoảng giá [min, max] (max = null: không giới hạn trên)
+     */
+    public record PriceBucket(Double min, Double max, long count) {
+    }
+}
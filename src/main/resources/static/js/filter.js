@@ -5,6 +5,25 @@ $(document).ready(function() {
         $('#filterForm').submit();
     });
     
+    // Gợi ý tìm kiếm (autocomplete) khi gõ keyword
+    var suggestTimer = null;
+    $('#filterForm input[name="keyword"]').on('input', function() {
+        var q = $(this).val().trim();
+        clearTimeout(suggestTimer);
+        if (q.length < 2) {
+            $('#keywordSuggestions').empty();
+            return;
+        }
+        suggestTimer = setTimeout(function() {
+            $.getJSON('/api/v1/books/suggest', { q: q, limit: 8 }, function(suggestions) {
+                var list = $('#keywordSuggestions').empty();
+                suggestions.forEach(function(s) {
+                    list.append($('<option>').val(s.text));
+                });
+            });
+        }, 150);
+    });
+    
     // Optional: AJAX filter (không reload trang)
     // Uncomment để sử dụng
     /*
@@ -39,8 +39,6 @@ function renderBookTable(books) {
                 <button class="btn btn-danger btn-sm" onclick="apiDeleteBook(${book.id}); return false;">Delete</button>
                 <form action="/books/add-to-cart" method="post" class="d-inline">
                     <input type="hidden" name="id" value="${book.id}">
-                    <input type="hidden" name="name" value="${book.title}">
-                    <input type="hidden" name="price" value="${book.price}">
                     <button type="submit" class="btn btn-success btn-sm">Add to cart</button>
                 </form>
             </td>